@@ -0,0 +1,73 @@
+package com.svi.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// generalHandler.extractFieldValuesFromXml on one generated file per call, for each parser engine.
+// Run with -prof gc for the allocation per file.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class extractBenchmark {
+    private static final MethodHandle FROM_CONFIG = toolBridge.method("qcaParser", "fromConfig", Properties.class);
+    private static final MethodHandle MAPPING = toolBridge.method("generalHandler", "getFieldNumberToNameMapping",
+            String.class, String.class);
+    private static final MethodHandle COMPILE = toolBridge.method("fieldLookupIndex", "compile", java.util.Map.class);
+    private static final MethodHandle EXTRACT = toolBridge.method("generalHandler", "extractFieldValuesFromXml",
+            toolBridge.type("qcaParser"), File.class, toolBridge.type("fieldLookupIndex"));
+
+    @Param({ "stax", "dom", "mapped" })
+    public String parserEngine;
+
+    @Param({ "1" })
+    public int recordsPerFile;
+
+    @Param({ "3", "12" })
+    public int subRecords;
+
+    @Param({ "40", "200" })
+    public int fieldCount;
+
+    @Param({ "SI:5,CSR:3,SBR:2" })
+    public String docTypeMix;
+
+    private File dir;
+    private File[] files;
+    private Object parser;
+    private Object fieldIndex;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        toolBridge.quietStdout();
+        dir = qcaGenerator.tempDir("qca-extract");
+        qcaGenerator generator = new qcaGenerator(42, recordsPerFile, subRecords, fieldCount, docTypeMix);
+        List<File> written = generator.writeFiles(new File(dir, "in"), 64);
+        files = written.toArray(new File[0]);
+        File schema = generator.writeSchema(new File(dir, "schema.mdb"));
+
+        Properties config = new Properties();
+        config.setProperty("Parser_engine", parserEngine);
+        parser = (Object) FROM_CONFIG.invokeExact((Object) config);
+        Object mapping = (Object) MAPPING.invokeExact((Object) schema.getPath(), (Object) null);
+        fieldIndex = (Object) COMPILE.invokeExact(mapping);
+    }
+
+    @TearDown
+    public void tearDown() {
+        qcaGenerator.deleteTree(dir);
+    }
+
+    @Benchmark
+    public Object extractFieldValuesFromXml() throws Throwable {
+        File file = files[next++ & (files.length - 1)];
+        return (Object) EXTRACT.invokeExact(parser, (Object) file, fieldIndex);
+    }
+}
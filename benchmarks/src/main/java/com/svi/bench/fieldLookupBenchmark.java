@@ -0,0 +1,112 @@
+package com.svi.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// String-key HashMap lookups (the original extractFieldValuesFromXml inner loop) against the
+// compiled fieldLookupIndex. Run with -prof gc to see the per-field allocation disappear.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class fieldLookupBenchmark {
+    private static final MethodHandle COMPILE = toolBridge.method("fieldLookupIndex", "compile", Map.class);
+    private static final MethodHandle DOC_TYPE_ORDINAL = toolBridge.method("fieldLookupIndex", "docTypeOrdinal", String.class);
+    private static final MethodHandle LOOKUP = toolBridge.method("fieldLookupIndex", "lookup", int.class, String.class);
+    private static final MethodHandle NAME = toolBridge.method("fieldLookupIndex", "name", int.class);
+
+    private static final String[] DOC_TYPES = { "SI", "CSR", "SBR", "LTMS", "COC", "STENCIL" };
+
+    @Param({ "300" })
+    public int fieldCount;
+
+    @Param({ "0.3" })
+    public double specificShare;
+
+    private Map<String, String> fieldNumberToName;
+    private Object fieldIndex;
+
+    // One sub-record's worth of probes per doc type, as the parser would hand them over
+    private String[] subRecordDocTypes;
+    private String[][] subRecordFieldNos;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(7);
+        fieldNumberToName = new LinkedHashMap<>();
+        for (int no = 1; no <= fieldCount; no++) {
+            fieldNumberToName.put(String.valueOf(no), "Field " + no);
+            for (String docType : DOC_TYPES) {
+                if (random.nextDouble() < specificShare) {
+                    fieldNumberToName.put(no + "-" + docType, docType + " Field " + no);
+                }
+            }
+        }
+        fieldIndex = (Object) COMPILE.invokeExact((Object) fieldNumberToName);
+
+        subRecordDocTypes = new String[64];
+        subRecordFieldNos = new String[subRecordDocTypes.length][];
+        for (int s = 0; s < subRecordDocTypes.length; s++) {
+            subRecordDocTypes[s] = DOC_TYPES[random.nextInt(DOC_TYPES.length)];
+            subRecordFieldNos[s] = new String[60];
+            for (int f = 0; f < subRecordFieldNos[s].length; f++) {
+                // Fresh strings, as they come out of the parser
+                subRecordFieldNos[s][f] = new String(String.valueOf(1 + random.nextInt(fieldCount + 20)));
+            }
+        }
+        verify();
+    }
+
+    @Benchmark
+    public void stringKeys(Blackhole blackhole) {
+        for (int s = 0; s < subRecordDocTypes.length; s++) {
+            String documentType = subRecordDocTypes[s];
+            for (String fieldNo : subRecordFieldNos[s]) {
+                String fieldName = fieldNumberToName.get(fieldNo + "-" + documentType);
+                if (fieldName == null) {
+                    fieldName = fieldNumberToName.get(fieldNo);
+                }
+                blackhole.consume(fieldName);
+            }
+        }
+    }
+
+    @Benchmark
+    public void compiledIndex(Blackhole blackhole) throws Throwable {
+        Object index = fieldIndex;
+        for (int s = 0; s < subRecordDocTypes.length; s++) {
+            int docType = (int) DOC_TYPE_ORDINAL.invokeExact(index, (Object) subRecordDocTypes[s]);
+            for (String fieldNo : subRecordFieldNos[s]) {
+                int field = (int) LOOKUP.invokeExact(index, docType, (Object) fieldNo);
+                blackhole.consume(field >= 0 ? (Object) NAME.invokeExact(index, field) : null);
+            }
+        }
+    }
+
+    // Sanity check that both schemes agree before measuring anything
+    private void verify() throws Throwable {
+        Object index = fieldIndex;
+        for (int s = 0; s < subRecordDocTypes.length; s++) {
+            int docType = (int) DOC_TYPE_ORDINAL.invokeExact(index, (Object) subRecordDocTypes[s]);
+            for (String fieldNo : subRecordFieldNos[s]) {
+                String fieldName = fieldNumberToName.get(fieldNo + "-" + subRecordDocTypes[s]);
+                if (fieldName == null) {
+                    fieldName = fieldNumberToName.get(fieldNo);
+                }
+                int field = (int) LOOKUP.invokeExact(index, docType, (Object) fieldNo);
+                String compiled = field >= 0 ? (String) (Object) NAME.invokeExact(index, field) : null;
+                if (fieldName == null ? compiled != null : !fieldName.equals(compiled)) {
+                    throw new IllegalStateException("Mismatch for " + fieldNo + "-" + subRecordDocTypes[s]
+                            + ": " + fieldName + " vs " + compiled);
+                }
+            }
+        }
+    }
+}
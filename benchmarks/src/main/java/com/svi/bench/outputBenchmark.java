@@ -0,0 +1,113 @@
+package com.svi.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The output stages on records extracted from a generated corpus: writeToCSV and writeToMDB write
+// the whole record list per call, insertValuesIntoOutputMdb inserts one record per call into a
+// Liaison table that starts empty each iteration.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class outputBenchmark {
+    private static final MethodHandle FROM_CONFIG = toolBridge.method("qcaParser", "fromConfig", Properties.class);
+    private static final MethodHandle MAPPING = toolBridge.method("generalHandler", "getFieldNumberToNameMapping",
+            String.class, String.class);
+    private static final MethodHandle COMPILE = toolBridge.method("fieldLookupIndex", "compile", Map.class);
+    private static final MethodHandle EXTRACT = toolBridge.method("generalHandler", "extractFieldValuesFromXml",
+            toolBridge.type("qcaParser"), File.class, toolBridge.type("fieldLookupIndex"));
+    private static final MethodHandle WRITE_CSV = toolBridge.method("generalHandler", "writeToCSV", List.class, String.class);
+    private static final MethodHandle WRITE_MDB = toolBridge.method("generalHandler", "writeToMDB", List.class, List.class,
+            String.class, int.class, int.class, String.class, toolBridge.type("runManifest"));
+    private static final MethodHandle PLAN = toolBridge.method("liaisonPlan", "compile", Properties.class,
+            toolBridge.type("fieldLookupIndex"));
+    private static final MethodHandle INSERT = toolBridge.method("specialHandler", "insertValuesIntoOutputMdb",
+            String.class, Map.class, toolBridge.type("liaisonPlan"));
+
+    @Param({ "200" })
+    public int records;
+
+    @Param({ "40" })
+    public int fieldCount;
+
+    private File dir;
+    private List<Map<String, String>> extracted;
+    private String csvPath;
+    // The built-in Liaison spec, compiled as specialHandler does
+    private Object plan;
+    private int next;
+
+    @State(Scope.Benchmark)
+    public static class mdbEngine {
+        @Param({ "ucanaccess", "jackcess" })
+        public String engine;
+    }
+
+    @State(Scope.Benchmark)
+    public static class liaisonFile {
+        private File template;
+        private File copy;
+
+        @Setup(Level.Iteration)
+        public void copyTemplate(outputBenchmark benchmark) throws Exception {
+            if (template == null) {
+                template = qcaGenerator.writeLiaisonTemplate(new File(benchmark.dir, "template.mdb"));
+                copy = new File(benchmark.dir, "liaison.mdb");
+            }
+            Files.copy(template.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Throwable {
+        toolBridge.quietStdout();
+        dir = qcaGenerator.tempDir("qca-output");
+        qcaGenerator generator = new qcaGenerator(42, 1, 3, fieldCount, "SI:5,CSR:3,SBR:2");
+        List<File> files = generator.writeFiles(new File(dir, "in"), records);
+        File schema = generator.writeSchema(new File(dir, "schema.mdb"));
+
+        Properties config = new Properties();
+        Object parser = (Object) FROM_CONFIG.invokeExact((Object) config);
+        Object fieldIndex = (Object) COMPILE.invokeExact((Object) MAPPING.invokeExact((Object) schema.getPath(), (Object) null));
+        extracted = new ArrayList<>();
+        for (File file : files) {
+            extracted.add((Map<String, String>) (Object) EXTRACT.invokeExact(parser, (Object) file, fieldIndex));
+        }
+        csvPath = new File(dir, "out.csv").getPath();
+        plan = (Object) PLAN.invokeExact((Object) config, fieldIndex);
+    }
+
+    @TearDown
+    public void tearDown() {
+        qcaGenerator.deleteTree(dir);
+    }
+
+    @Benchmark
+    public void writeToCSV() throws Throwable {
+        WRITE_CSV.invokeExact((Object) extracted, (Object) csvPath);
+    }
+
+    @Benchmark
+    public void writeToMDB(mdbEngine mdb) throws Throwable {
+        String path = new File(dir, "out-" + mdb.engine + ".mdb").getPath();
+        WRITE_MDB.invokeExact((Object) extracted, (Object) null, (Object) path, 500, 5000, (Object) mdb.engine, (Object) null);
+    }
+
+    @Benchmark
+    public void insertValuesIntoOutputMdb(liaisonFile liaison) throws Throwable {
+        Map<String, String> record = extracted.get(next++ % extracted.size());
+        INSERT.invokeExact((Object) liaison.copy.getPath(), (Object) record, plan);
+    }
+}
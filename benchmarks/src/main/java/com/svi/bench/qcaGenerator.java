@@ -0,0 +1,226 @@
+package com.svi.bench;
+
+import com.healthmarketscience.jackcess.ColumnBuilder;
+import com.healthmarketscience.jackcess.DataType;
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.IndexBuilder;
+import com.healthmarketscience.jackcess.Table;
+import com.healthmarketscience.jackcess.TableBuilder;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic QCA corpus: the same settings and seed always give byte-identical QCA files and the
+// same tblFields rows. Field 1 carries the document type, the next fields use the names specialHandler maps
+// onto Liaison, and the rest are filler. Some fields get doc-type-specific names in tblFields.
+//
+//   java -cp target/benchmarks.jar com.svi.bench.qcaGenerator <dir> [files] [records] [subRecords] [fields] [docTypes]
+public final class qcaGenerator {
+    static final String[] NAMED_FIELDS = {
+        "Document Type", "Date Sold", "BODY TYPE", "Make", "Model", "YEAR", "Color",
+        "Conduction Sitcker No./Plate Number", "ENGINE NO", "CHASSIS#", "Last Name", "First Name", "Middle Name",
+        "Extension", "TIN", "Unit No./HouseNo./Floor No.", "Building", "Street", "Barangay", "City or Municipality",
+        "Province", "Zipcode", "CSR NUMBER"
+    };
+
+    static final String[] LIAISON_COLUMNS = {
+        "App Date", "Type", "Make", "Model", "Year", "Color", "Plate #", "Engine #", "Chasis #", "MVCO OR #",
+        "Owner", "TIN Owner", "Address", "Purpose", "Acquired From", "From TIN", "From Address", "Switch",
+        "MacroEch", "Operator Id"
+    };
+
+    private final long seed;
+    private final int recordsPerFile;
+    private final int subRecordsPerRecord;
+    private final int fieldCount;
+    private final String[] docTypes;
+    private final int[] docTypeWeights;
+    private final int totalWeight;
+
+    // docTypeMix is "SI:5,CSR:3,SBR:2"; a type without a weight counts once
+    public qcaGenerator(long seed, int recordsPerFile, int subRecordsPerRecord, int fieldCount, String docTypeMix) {
+        this.seed = seed;
+        this.recordsPerFile = Math.max(1, recordsPerFile);
+        this.subRecordsPerRecord = Math.max(1, subRecordsPerRecord);
+        this.fieldCount = Math.max(2, fieldCount);
+
+        String[] parts = docTypeMix.split(",");
+        this.docTypes = new String[parts.length];
+        this.docTypeWeights = new int[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] typeAndWeight = parts[i].trim().split(":");
+            docTypes[i] = typeAndWeight[0].trim();
+            docTypeWeights[i] = typeAndWeight.length > 1 ? Integer.parseInt(typeAndWeight[1].trim()) : 1;
+            total += docTypeWeights[i];
+        }
+        this.totalWeight = total;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    static String fieldName(int fieldNo) {
+        return fieldNo <= NAMED_FIELDS.length ? NAMED_FIELDS[fieldNo - 1] : "Field " + fieldNo;
+    }
+
+    // Files are named like the real drops (NCR-TOYOTA-00000.QCA) so the handlers derive the same output names
+    public List<File> writeFiles(File dir, int count) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, String.format("NCR-TOYOTA-%05d.QCA", i));
+            writeFile(file, i);
+            files.add(file);
+        }
+        return files;
+    }
+
+    public void writeFile(File file, int fileIndex) throws IOException {
+        Random random = new Random(seed * 31 + fileIndex);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batch>\n");
+            for (int r = 0; r < recordsPerFile; r++) {
+                writer.write("<record>\n");
+                for (int s = 0; s < subRecordsPerRecord; s++) {
+                    String docType = pickDocType(random);
+                    writer.write("<sub-record>\n");
+                    field(writer, 1, docType);
+                    for (int f = 2; f <= fieldCount; f++) {
+                        field(writer, f, value(random, f, docType));
+                    }
+                    writer.write("</sub-record>\n");
+                }
+                writer.write("</record>\n");
+            }
+            writer.write("</batch>\n");
+        }
+    }
+
+    private String pickDocType(Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (int i = 0; i < docTypes.length; i++) {
+            pick -= docTypeWeights[i];
+            if (pick < 0) {
+                return docTypes[i];
+            }
+        }
+        return docTypes[docTypes.length - 1];
+    }
+
+    private static String value(Random random, int fieldNo, String docType) {
+        switch (fieldName(fieldNo)) {
+            case "Date Sold":
+                return String.format("%02d/%02d/2024", 1 + random.nextInt(12), 1 + random.nextInt(28));
+            case "YEAR":
+                return String.valueOf(2015 + random.nextInt(10));
+            case "Street":
+                // Exercises escaping in the CSV writer
+                return random.nextInt(8) + " Main St, Unit \"" + random.nextInt(40) + "\"";
+            default:
+                // A few blanks and "$" placeholders, which the extractor skips
+                int roll = random.nextInt(40);
+                if (roll == 0) {
+                    return "$";
+                }
+                if (roll == 1) {
+                    return "";
+                }
+                return "V" + fieldNo + "_" + docType + "_" + random.nextInt(1000) + (roll < 4 ? " & <co>" : "");
+        }
+    }
+
+    private static void field(Writer writer, int fieldNo, String value) throws IOException {
+        writer.write("<field no=\"");
+        writer.write(String.valueOf(fieldNo));
+        writer.write("\"><value>");
+        writer.write(value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+        writer.write("</value></field>\n");
+    }
+
+    // tblFields with a generic row per field, plus doc-type-specific names for roughly a fifth of them
+    // (half written with the "~" marker some schemas use)
+    public File writeSchema(File mdb) throws IOException {
+        mdb.delete();
+        Random random = new Random(seed);
+        try (Database db = DatabaseBuilder.create(Database.FileFormat.V2000, mdb)) {
+            Table table = new TableBuilder("tblFields")
+                    .addColumn(new ColumnBuilder("FieldNo", DataType.DOUBLE))
+                    .addColumn(new ColumnBuilder("FieldName", DataType.TEXT))
+                    .addColumn(new ColumnBuilder("DocType", DataType.TEXT))
+                    .toTable(db);
+            for (int f = 1; f <= fieldCount; f++) {
+                table.addRow(Double.valueOf(f), fieldName(f), null);
+                if (f > NAMED_FIELDS.length && random.nextInt(5) == 0) {
+                    String docType = docTypes[random.nextInt(docTypes.length)];
+                    table.addRow(Double.valueOf(f), docType + " Field " + f, random.nextBoolean() ? "~" + docType : docType);
+                }
+            }
+        }
+        return mdb;
+    }
+
+    // Empty Liaison table shaped like the production template: ID autonumber key, a date column and two indexes
+    public static File writeLiaisonTemplate(File mdb) throws IOException {
+        mdb.delete();
+        try (Database db = DatabaseBuilder.create(Database.FileFormat.V2000, mdb)) {
+            TableBuilder builder = new TableBuilder("Liaison")
+                    .addColumn(new ColumnBuilder("ID", DataType.LONG).setAutoNumber(true))
+                    .setPrimaryKey("ID");
+            for (String column : LIAISON_COLUMNS) {
+                builder.addColumn(column.equals("App Date")
+                        ? new ColumnBuilder(column, DataType.SHORT_DATE_TIME)
+                        : new ColumnBuilder(column, DataType.TEXT).setLengthInUnits(column.equals("Address") ? 200 : 100));
+            }
+            builder.addIndex(new IndexBuilder("ChasisIdx").addColumns("Chasis #"))
+                    .addIndex(new IndexBuilder("OwnerIdx").addColumns("Owner"))
+                    .toTable(db);
+        }
+        return mdb;
+    }
+
+    // Scratch space for one benchmark trial; removed again by deleteTree
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteTree(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: qcaGenerator <dir> [files] [records] [subRecords] [fields] [docTypes]");
+            return;
+        }
+        File dir = new File(args[0]);
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        qcaGenerator generator = new qcaGenerator(42,
+                args.length > 2 ? Integer.parseInt(args[2]) : 1,
+                args.length > 3 ? Integer.parseInt(args[3]) : 3,
+                args.length > 4 ? Integer.parseInt(args[4]) : 40,
+                args.length > 5 ? args[5] : "SI:5,CSR:3,SBR:2");
+        generator.writeFiles(new File(dir, "in"), files);
+        generator.writeSchema(new File(dir, "schema.mdb"));
+        writeLiaisonTemplate(new File(dir, "template.mdb"));
+        System.out.println("Wrote " + files + " QCA files, schema.mdb and template.mdb under " + dir);
+    }
+}
@@ -0,0 +1,456 @@
+package com.svi.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// End-to-end runs of pnpRefTool over generated corpora of growing size, one fresh JVM per run, with
+// a scaling report and a check against a stored baseline. Linux only (peak RSS comes from /proc).
+//
+//   java -cp target/benchmarks.jar com.svi.bench.scalingHarness <workDir> [options]
+//     --config config/config.properties   base config (Liaison columns etc.); paths are replaced
+//     --sizes 1000,100000,1000000         QCA files per corpus
+//     --modes general-mdb,general-csv,special
+//     --repeat 1                          runs per mode and size; more turn it into a soak test
+//     --jvm "-Xmx2g"                      options for the tool's JVM
+//     --set Key=value                     extra config.properties setting, repeatable
+//     --timeout-min 240                   per run
+//     --baseline <report.json>            flag regressions against an earlier report
+//     --tolerance 0.10                    allowed relative change before a metric counts as regressed
+//
+// Corpora (1 record of 3 sub-records with 40 fields per file, plus schema.mdb and template.mdb) are
+// generated once per size under <workDir>/corpus-<size> and reused. Each run writes its console
+// output and GC log under <workDir>/runs. The report goes to <workDir>/scaling-report.csv and
+// .json; the JSON has one run per line and serves as the next baseline. The exit code is 1 when
+// a run fails or regresses.
+public final class scalingHarness {
+    // Unified logging (9+): "GC(3) Pause Young (Normal) (G1 Evacuation Pause) 24M->3M(256M) 2.345ms"
+    private static final Pattern GC_PAUSE = Pattern.compile(
+            "GC\\(\\d+\\) Pause.* (\\d+)([KMG])->\\d+[KMG]\\(\\d+[KMG]\\) ([0-9.]+)ms");
+    // -XX:+PrintGCDetails (8): "[GC (Allocation Failure) [PSYoungGen: ...] 33280K->5112K(125952K), 0.0034567 secs]",
+    // a full collection also lists "[Metaspace: ...], " before the time
+    private static final Pattern GC_PAUSE_8 = Pattern.compile(
+            "\\[(?:Full )?GC.*?[\\])] +(\\d+)([KMG])->\\d+[KMG]\\(\\d+[KMG]\\), (?:\\[Metaspace: [^\\]]*\\], )?([0-9.]+) secs\\]");
+    private static final Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\": ?(\"[^\"]*\"|[-0-9.]+)");
+    // Metrics checked against the baseline, whether higher is better, and the absolute change below
+    // which a difference is noise whatever its relative size (a few ms of GC, a few MB of heap)
+    private static final String[][] CHECKED = {
+        { "filesPerSec", "higher", "0" }, { "peakRssMb", "lower", "16" }, { "peakHeapMb", "lower", "16" },
+        { "gcPauseMs", "lower", "50" }, { "outputMb", "lower", "0.1" }
+    };
+
+    private final File workDir;
+    private final List<String> jvmOptions = new ArrayList<>();
+    private final Properties settings = new Properties();
+    private File baseConfig = new File("config/config.properties");
+    private long timeoutMinutes = 240;
+
+    private scalingHarness(File workDir) {
+        this.workDir = workDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: scalingHarness <workDir> [--sizes n,...] [--modes m,...] [--repeat n] [--jvm opts]"
+                    + " [--config file] [--set Key=value] [--timeout-min n] [--baseline report.json] [--tolerance 0.10]");
+            System.exit(2);
+        }
+        scalingHarness harness = new scalingHarness(new File(args[0]));
+        List<Integer> sizes = Arrays.asList(1000, 100000, 1000000);
+        List<String> modes = Arrays.asList("general-mdb", "general-csv", "special");
+        int repeat = 1;
+        File baseline = null;
+        double tolerance = 0.10;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--sizes":
+                    sizes = new ArrayList<>();
+                    for (String size : value.split(",")) {
+                        sizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--modes":
+                    modes = Arrays.asList(value.split(","));
+                    break;
+                case "--repeat":
+                    repeat = Integer.parseInt(value);
+                    break;
+                case "--jvm":
+                    harness.jvmOptions.addAll(Arrays.asList(value.trim().split("\\s+")));
+                    break;
+                case "--config":
+                    harness.baseConfig = new File(value);
+                    break;
+                case "--set":
+                    harness.settings.load(new java.io.StringReader(value.replace("\\", "\\\\")));
+                    break;
+                case "--timeout-min":
+                    harness.timeoutMinutes = Long.parseLong(value);
+                    break;
+                case "--baseline":
+                    baseline = new File(value);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int size : sizes) {
+            File corpus = harness.corpus(size);
+            for (String mode : modes) {
+                for (int run = 1; run <= repeat; run++) {
+                    Map<String, Object> result = harness.run(corpus, mode.trim(), size, run);
+                    System.out.println(summary(result));
+                    results.add(result);
+                }
+            }
+        }
+
+        boolean failed = false;
+        for (Map<String, Object> result : results) {
+            failed |= !"ok".equals(result.get("status"));
+        }
+        if (baseline != null) {
+            failed |= compare(results, readReport(baseline), tolerance);
+        }
+        writeReport(results, new File(harness.workDir, "scaling-report"));
+        System.out.println("Report written to " + new File(harness.workDir, "scaling-report.csv") + " and .json");
+        System.exit(failed ? 1 : 0);
+    }
+
+    // Generated once per size; the marker file is written last, so an interrupted generation starts over
+    private File corpus(int size) throws IOException {
+        File dir = new File(workDir, "corpus-" + size);
+        File marker = new File(dir, "corpus.complete");
+        if (marker.isFile()) {
+            return dir;
+        }
+        qcaGenerator.deleteTree(dir);
+        long start = System.nanoTime();
+        System.out.println("Generating " + size + " QCA files under " + dir);
+        qcaGenerator generator = new qcaGenerator(42, 1, 3, 40, "SI:5,CSR:3,SBR:2");
+        generator.writeFiles(new File(dir, "in"), size);
+        generator.writeSchema(new File(dir, "schema.mdb"));
+        qcaGenerator.writeLiaisonTemplate(new File(dir, "template.mdb"));
+        Files.write(marker.toPath(), String.valueOf(size).getBytes(StandardCharsets.UTF_8));
+        System.out.println(String.format(Locale.ROOT, "Generated in %.1fs", (System.nanoTime() - start) / 1e9));
+        return dir;
+    }
+
+    private Map<String, Object> run(File corpus, String mode, int size, int run) throws Exception {
+        File runDir = new File(workDir, "runs/" + mode + "-" + size + "-" + run);
+        qcaGenerator.deleteTree(runDir);
+        File outDir = new File(runDir, "out");
+        if (!new File(runDir, "config").mkdirs() || !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + runDir);
+        }
+
+        // Fixed settings, so runs compare; --set overrides them
+        Properties config = new Properties();
+        if (baseConfig.isFile()) {
+            try (FileInputStream in = new FileInputStream(baseConfig)) {
+                config.load(in);
+            }
+        }
+        config.setProperty("Input_path", new File(corpus, "in").getAbsolutePath());
+        config.setProperty("Schema_MDB", new File(corpus, "schema.mdb").getAbsolutePath());
+        config.setProperty("Template_MDB", new File(corpus, "template.mdb").getAbsolutePath());
+        config.setProperty("Output_path", outDir.getAbsolutePath());
+        config.setProperty("Output_MDB", new File(outDir, "db1.mdb").getAbsolutePath());
+        config.setProperty("Schema_cache", new File(runDir, "schema.cache").getAbsolutePath());
+        config.setProperty("Metrics_path", new File(runDir, "pnp-metrics").getAbsolutePath());
+        config.setProperty("input_ext", "QCA");
+        config.setProperty("Run_mode", "once");
+        config.setProperty("Progress_interval", "0");
+        config.setProperty("Dedup_keys", "");
+        config.setProperty("Incremental", "false");
+        config.putAll(settings);
+        try (OutputStream out = new FileOutputStream(new File(runDir, "config/config.properties"))) {
+            config.store(out, "scalingHarness " + mode + " " + size);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(jvmOptions);
+        command.addAll(gcLogOptions(new File(runDir, "gc.log")));
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        // pnpRefTool's handling-type prompt buffers stdin past its own line, so general runs start at
+        // generalHandler, which asks only for the output format
+        boolean special = mode.startsWith("special");
+        command.add(special ? "pnpRefTool" : "generalHandler");
+        ProcessBuilder builder = new ProcessBuilder(command).directory(runDir)
+                .redirectErrorStream(true).redirectOutput(new File(runDir, "console.log"));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mode", mode);
+        result.put("files", size);
+        result.put("run", run);
+        System.out.println("Running " + mode + " over " + size + " files (run " + run + ")");
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try (PrintWriter answers = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8))) {
+            answers.println(special ? "special" : mode.endsWith("csv") ? "csv" : "mdb");
+        }
+        long peakRssKb = 0;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutMinutes);
+        String status = "ok";
+        while (!process.waitFor(200, TimeUnit.MILLISECONDS)) {
+            peakRssKb = Math.max(peakRssKb, peakRssKb(process));
+            if (System.nanoTime() > deadline) {
+                process.destroyForcibly();
+                status = "timeout";
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (status.equals("ok") && process.exitValue() != 0) {
+            status = "exit " + process.exitValue();
+        }
+        if (status.equals("ok") && errorLogged(new File(runDir, "console.log"))) {
+            status = "errors";
+        }
+
+        long[] gc = gcTotals(new File(runDir, "gc.log"));
+        Map<String, String> metrics = readJson(new File(runDir, "pnp-metrics.json"));
+        result.put("status", status);
+        result.put("seconds", round(seconds));
+        result.put("filesPerSec", round(size / seconds));
+        result.put("rows", Long.parseLong(metrics.getOrDefault("rows", "0")));
+        result.put("peakRssMb", round(peakRssKb / 1024.0));
+        result.put("peakHeapMb", round(gc[0] / 1024.0 / 1024.0));
+        result.put("gcPauseMs", round(gc[1] / 1000.0));
+        result.put("gcCount", gc[2]);
+        result.put("outputMb", round(outputBytes(outDir) / 1024.0 / 1024.0));
+        return result;
+    }
+
+    // The tool runs from the run directory, so relative class path entries would not resolve
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    // VmHWM is the process's resident high-water mark so far
+    private static long peakRssKb(Process process) {
+        try {
+            long pid = (Long) Process.class.getMethod("pid").invoke(process);
+            for (String line : Files.readAllLines(new File("/proc/" + pid + "/status").toPath())) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (Exception e) {
+            // Process gone, or not Linux
+        }
+        return 0;
+    }
+
+    private static boolean errorLogged(File console) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(console), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Error") || line.startsWith("Exception")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The tool JVMs run on this JVM's java; -Xlog only exists from 9 on
+    static List<String> gcLogOptions(File gcLog) {
+        if (System.getProperty("java.specification.version").startsWith("1.")) {
+            return Arrays.asList("-Xloggc:" + gcLog.getAbsolutePath(), "-XX:+PrintGCDetails");
+        }
+        return Collections.singletonList("-Xlog:gc:file=" + gcLog.getAbsolutePath());
+    }
+
+    // {heap in use before the fullest collection (bytes), total pause (microseconds), pauses}
+    static long[] gcTotals(File gcLog) throws IOException {
+        long[] totals = new long[3];
+        if (!gcLog.isFile()) {
+            return totals;
+        }
+        for (String line : Files.readAllLines(gcLog.toPath(), StandardCharsets.UTF_8)) {
+            Matcher m = GC_PAUSE.matcher(line);
+            double toMillis = 1;
+            if (!m.find()) {
+                m = GC_PAUSE_8.matcher(line);
+                toMillis = 1000;
+                if (!m.find()) {
+                    continue;
+                }
+            }
+            long unit = m.group(2).equals("K") ? 1L << 10 : m.group(2).equals("M") ? 1L << 20 : 1L << 30;
+            totals[0] = Math.max(totals[0], Long.parseLong(m.group(1)) * unit);
+            totals[1] += (long) (Double.parseDouble(m.group(3)) * toMillis * 1000);
+            totals[2]++;
+        }
+        return totals;
+    }
+
+    private static long outputBytes(File outDir) {
+        long bytes = 0;
+        File[] files = outDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().toLowerCase(Locale.ROOT);
+                if (name.endsWith(".mdb") || name.endsWith(".csv") || name.endsWith(".gz")) {
+                    bytes += file.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    // True when any checked metric of a run is worse than the baseline's by more than the tolerance.
+    // Runs are matched on mode and size; with repeats the medians are compared.
+    static boolean compare(List<Map<String, Object>> results, List<Map<String, String>> baseline, double tolerance) {
+        boolean regressed = false;
+        for (Map<String, Object> result : results) {
+            if (!result.get("run").equals(1)) {
+                continue;
+            }
+            String mode = (String) result.get("mode");
+            String files = String.valueOf(result.get("files"));
+            List<String> flags = new ArrayList<>();
+            for (String[] checked : CHECKED) {
+                List<Double> now = new ArrayList<>();
+                for (Map<String, Object> other : results) {
+                    if (other.get("mode").equals(mode) && String.valueOf(other.get("files")).equals(files)) {
+                        now.add(((Number) other.get(checked[0])).doubleValue());
+                    }
+                }
+                List<Double> before = new ArrayList<>();
+                for (Map<String, String> earlier : baseline) {
+                    if (mode.equals(earlier.get("mode")) && files.equals(earlier.get("files")) && earlier.containsKey(checked[0])) {
+                        before.add(Double.parseDouble(earlier.get(checked[0])));
+                    }
+                }
+                if (before.isEmpty()) {
+                    continue;
+                }
+                double current = median(now);
+                double previous = median(before);
+                if (Math.abs(current - previous) <= Double.parseDouble(checked[2])) {
+                    continue;
+                }
+                double change = previous == 0 ? 1 : (current - previous) / previous;
+                boolean worse = checked[1].equals("higher") ? change < -tolerance : change > tolerance;
+                if (worse) {
+                    flags.add(String.format(Locale.ROOT, "%s %+.0f%%", checked[0], change * 100));
+                }
+            }
+            for (Map<String, Object> other : results) {
+                if (other.get("mode").equals(mode) && String.valueOf(other.get("files")).equals(files)) {
+                    other.put("regressions", String.join("; ", flags));
+                }
+            }
+            if (!flags.isEmpty()) {
+                System.out.println("REGRESSION " + mode + " " + files + " files: " + String.join(", ", flags));
+                regressed = true;
+            }
+        }
+        return regressed;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        return n % 2 == 1 ? sorted.get(n / 2) : (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2;
+    }
+
+    private static String summary(Map<String, Object> result) {
+        return String.format(Locale.ROOT, "  %s %s files: %s, %.1fs, %.1f files/sec, peak RSS %.0f MB, heap %.0f MB, GC %.0f ms, output %.1f MB",
+                result.get("mode"), result.get("files"), result.get("status"), result.get("seconds"),
+                result.get("filesPerSec"), result.get("peakRssMb"), result.get("peakHeapMb"), result.get("gcPauseMs"),
+                result.get("outputMb"));
+    }
+
+    private static final String[] COLUMNS = {
+        "mode", "files", "run", "status", "seconds", "filesPerSec", "rows", "peakRssMb", "peakHeapMb", "gcPauseMs",
+        "gcCount", "outputMb", "regressions"
+    };
+
+    static void writeReport(List<Map<String, Object>> results, File base) throws IOException {
+        try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream(base.getPath() + ".csv"), StandardCharsets.UTF_8));
+             PrintWriter json = new PrintWriter(new OutputStreamWriter(new FileOutputStream(base.getPath() + ".json"), StandardCharsets.UTF_8))) {
+            csv.println(String.join(",", COLUMNS));
+            json.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Map<String, Object> result = results.get(r);
+                List<String> cells = new ArrayList<>();
+                List<String> fields = new ArrayList<>();
+                for (String column : COLUMNS) {
+                    Object value = result.getOrDefault(column, "");
+                    cells.add(value instanceof String ? "\"" + value + "\"" : String.valueOf(value));
+                    fields.add("\"" + column + "\": " + (value instanceof String ? "\"" + value + "\"" : value));
+                }
+                csv.println(String.join(",", cells));
+                // One run per line, which is all readReport needs
+                json.println("  {" + String.join(", ", fields) + "}" + (r + 1 < results.size() ? "," : ""));
+            }
+            json.println("]");
+        }
+    }
+
+    static List<Map<String, String>> readReport(File report) throws IOException {
+        List<Map<String, String>> runs = new ArrayList<>();
+        for (String line : Files.readAllLines(report.toPath(), StandardCharsets.UTF_8)) {
+            if (line.trim().startsWith("{")) {
+                runs.add(parseFields(line));
+            }
+        }
+        return runs;
+    }
+
+    // The tool's pnp-metrics.json; only its top-level numbers are needed
+    private static Map<String, String> readJson(File file) throws IOException {
+        return file.isFile() ? parseFields(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8))
+                : Collections.<String, String>emptyMap();
+    }
+
+    private static Map<String, String> parseFields(String json) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Matcher m = JSON_FIELD.matcher(json);
+        while (m.find()) {
+            String value = m.group(2);
+            fields.putIfAbsent(m.group(1), value.startsWith("\"") ? value.substring(1, value.length() - 1) : value);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,71 @@
+package com.svi.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// getFieldNumberToNameMapping of both handlers against a generated tblFields. "memo" returns the
+// fields schemaCache keeps in memory within a process. "warm" clears that memo before every call, so
+// each call reads the sidecar cache; "cold" also deletes the sidecar, so each call reads the MDB
+// through Jackcess and rewrites the cache.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class schemaMappingBenchmark {
+    private static final MethodHandle GENERAL = toolBridge.method("generalHandler", "getFieldNumberToNameMapping",
+            String.class, String.class);
+    private static final MethodHandle SPECIAL = toolBridge.method("specialHandler", "getFieldNumberToNameMapping",
+            String.class, String.class, List.class);
+    private static final MethodHandle CLEAR_MEMO = toolBridge.method("schemaCache", "clearMemo");
+
+    @Param({ "40", "1000" })
+    public int fieldCount;
+
+    @Param({ "memo", "warm", "cold" })
+    public String cache;
+
+    private File dir;
+    private String schemaPath;
+    private File cacheFile;
+    private final List<String> docTypes = Arrays.asList("SI", "CSR", "SBR");
+
+    @Setup
+    public void setup() throws Throwable {
+        toolBridge.quietStdout();
+        dir = qcaGenerator.tempDir("qca-schema");
+        schemaPath = new qcaGenerator(42, 1, 3, fieldCount, "SI:5,CSR:3,SBR:2")
+                .writeSchema(new File(dir, "schema.mdb")).getPath();
+        cacheFile = new File(schemaPath + ".fields.cache");
+    }
+
+    @Setup(Level.Invocation)
+    public void dropCache() throws Throwable {
+        if (!cache.equals("memo")) {
+            CLEAR_MEMO.invokeExact();
+        }
+        if (cache.equals("cold")) {
+            cacheFile.delete();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        qcaGenerator.deleteTree(dir);
+    }
+
+    @Benchmark
+    public Object generalMapping() throws Throwable {
+        return (Object) GENERAL.invokeExact((Object) schemaPath, (Object) null);
+    }
+
+    @Benchmark
+    public Object specialMapping() throws Throwable {
+        return (Object) SPECIAL.invokeExact((Object) schemaPath, (Object) null, (Object) docTypes);
+    }
+}
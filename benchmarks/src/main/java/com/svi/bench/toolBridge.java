@@ -0,0 +1,48 @@
+package com.svi.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+// The tool's classes are in the default package, which named packages cannot reference.
+// Benchmarks reach them through method handles held in static finals, which the JIT inlines.
+final class toolBridge {
+    private toolBridge() {
+    }
+
+    // The handlers report progress on stdout for every file; inside a benchmark fork that is only noise
+    static void quietStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Tool class not on the classpath: " + className, e);
+        }
+    }
+
+    // Handle for a (possibly private) method with every reference type in its signature erased to Object,
+    // so callers can invokeExact without naming default-package types
+    static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + className + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Keeps one prepared INSERT open for the whole run and feeds it through JDBC batches.
+// Rows since the last commit are remembered so a failed batch can be rolled back and
+// replayed row by row, dropping only the rows that really fail. Deletes and updates made
+// since the last commit are replayed with them, in their original order. The same replay takes
+// back what was added since the last checkpoint, for rollback().
+public class batchInserter implements rowWriter {
+    private final Connection conn;
+    private final PreparedStatement pstmt;
+    private final int[] sqlTypes;
+    private final int batchSize;
+    private final int commitInterval;
+    private final boolean ownsConnection;
+    private final List<Object[]> uncommitted = new ArrayList<>();
+    private final List<pendingChange> changes = new ArrayList<>();
+    private final List<Runnable> commitListeners = new ArrayList<>();
+    private final List<Consumer<Object[]>> rejectListeners = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private boolean deferCommits;
+    private boolean aborted;
+    private String rowIdTable;
+    private String rowIdColumn;
+    private String table;
+    private String[] columnNames;
+    private PreparedStatement update;
+    private int[] updateKeys;
+
+    private int batched;
+    // Rows and changes of uncommitted that were there at the last checkpoint()
+    private int checkpointRows;
+    private int checkpointChanges;
+    private long inserted;
+    private long failed;
+
+    public batchInserter(Connection conn, String sql, int[] sqlTypes, int batchSize, int commitInterval) throws SQLException {
+        this(conn, sql, sqlTypes, batchSize, commitInterval, false);
+    }
+
+    // With ownsConnection set, close() also closes the connection
+    public batchInserter(Connection conn, String sql, int[] sqlTypes, int batchSize, int commitInterval,
+            boolean ownsConnection) throws SQLException {
+        this.conn = conn;
+        this.ownsConnection = ownsConnection;
+        this.sqlTypes = sqlTypes;
+        this.batchSize = Math.max(1, batchSize);
+        this.commitInterval = Math.max(this.batchSize, commitInterval);
+        conn.setAutoCommit(false);
+        this.pstmt = conn.prepareStatement(sql);
+    }
+
+    @Override
+    public void add(Object[] row) throws SQLException {
+        bind(pstmt, row, sqlTypes);
+        pstmt.addBatch();
+        uncommitted.add(row);
+        if (++batched >= batchSize) {
+            executeBatch();
+        }
+    }
+
+    // Sends the open batch and commits everything written so far
+    @Override
+    public void flush() throws SQLException {
+        executeBatch();
+        commit();
+    }
+
+    private void executeBatch() throws SQLException {
+        if (batched == 0) {
+            return;
+        }
+        try {
+            pstmt.executeBatch();
+            batched = 0;
+        } catch (SQLException e) {
+            System.err.println("Batch insert failed, retrying rows individually: " + e.getMessage());
+            pstmt.clearBatch();
+            batched = 0;
+            conn.rollback();
+            replayUncommitted();
+        }
+        if (!deferCommits && uncommitted.size() >= commitInterval) {
+            commit();
+        }
+    }
+
+    private void replayUncommitted() throws SQLException {
+        List<Object[]> rows = new ArrayList<>(uncommitted);
+        List<pendingChange> replayed = new ArrayList<>(changes);
+        uncommitted.clear();
+        changes.clear();
+        int next = 0;
+        for (int r = 0; r <= rows.size(); r++) {
+            if (r == checkpointRows) {
+                // Rows that fail again no longer count towards the checkpoint
+                checkpointRows = uncommitted.size();
+            }
+            while (next < replayed.size() && replayed.get(next).position <= r) {
+                sqlChange change = replayed.get(next++).change;
+                change.apply();
+                changes.add(new pendingChange(uncommitted.size(), change));
+            }
+            if (r == rows.size()) {
+                break;
+            }
+            Object[] row = rows.get(r);
+            try {
+                bind(pstmt, row, sqlTypes);
+                pstmt.executeUpdate();
+                uncommitted.add(row);
+            } catch (SQLException e) {
+                failed++;
+                runMetrics.rowFailed();
+                System.err.println("Error inserting record: " + e.getMessage());
+                for (Consumer<Object[]> listener : rejectListeners) {
+                    listener.accept(row);
+                }
+            }
+        }
+    }
+
+    private void commit() throws SQLException {
+        long start = System.nanoTime();
+        conn.commit();
+        runMetrics.COMMIT.record(start);
+        inserted += uncommitted.size();
+        runMetrics.rowsWritten(uncommitted.size());
+        uncommitted.clear();
+        changes.clear();
+        checkpointRows = 0;
+        checkpointChanges = 0;
+        for (Runnable listener : commitListeners) {
+            listener.run();
+        }
+    }
+
+    // Runs a delete or update after the rows added so far, and keeps it for a replay
+    private void apply(sqlChange change) throws SQLException {
+        executeBatch();
+        change.apply();
+        changes.add(new pendingChange(uncommitted.size(), change));
+    }
+
+    // Names the table's autonumber key so getLastRowId/deleteRows can use it
+    public void trackRowIds(String table, String idColumn) {
+        this.rowIdTable = table;
+        this.rowIdColumn = idColumn;
+    }
+
+    @Override
+    public long getLastRowId() throws SQLException {
+        if (rowIdColumn == null) {
+            return -1;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX([" + rowIdColumn + "]) FROM [" + rowIdTable + "]")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public void deleteRows(long firstRowId, long lastRowId) throws SQLException {
+        if (rowIdColumn == null) {
+            return;
+        }
+        apply(() -> {
+            try (PreparedStatement delete = conn.prepareStatement(
+                    "DELETE FROM [" + rowIdTable + "] WHERE [" + rowIdColumn + "] BETWEEN ? AND ?")) {
+                delete.setLong(1, firstRowId);
+                delete.setLong(2, lastRowId);
+                delete.executeUpdate();
+            }
+        });
+    }
+
+    // Names the table and the columns of add()'s rows, so update/readRows can address them
+    public void describeColumns(String table, String[] columnNames) {
+        this.table = table;
+        this.columnNames = columnNames.clone();
+    }
+
+    @Override
+    public long update(Object[] row, int[] keyColumns) throws SQLException {
+        if (columnNames == null) {
+            throw new IllegalStateException("update needs describeColumns");
+        }
+        if (update == null || !Arrays.equals(updateKeys, keyColumns)) {
+            if (update != null) {
+                update.close();
+            }
+            StringBuilder sql = new StringBuilder("UPDATE [" + table + "] SET ");
+            for (int i = 0; i < columnNames.length; i++) {
+                sql.append(i == 0 ? "[" : ", [").append(columnNames[i]).append("] = ?");
+            }
+            for (int k = 0; k < keyColumns.length; k++) {
+                sql.append(k == 0 ? " WHERE [" : " AND [").append(columnNames[keyColumns[k]]).append("] = ?");
+            }
+            update = conn.prepareStatement(sql.toString());
+            updateKeys = keyColumns.clone();
+        }
+        long[] updated = new long[1];
+        apply(() -> {
+            bind(update, row, sqlTypes);
+            for (int k = 0; k < keyColumns.length; k++) {
+                update.setObject(row.length + k + 1, row[keyColumns[k]], sqlTypes[keyColumns[k]]);
+            }
+            updated[0] = update.executeUpdate();
+        });
+        return updated[0];
+    }
+
+    @Override
+    public List<Object[]> readRows(long firstRowId, long lastRowId) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        if (rowIdColumn == null || columnNames == null) {
+            return rows;
+        }
+        executeBatch();
+        try (PreparedStatement select = conn.prepareStatement("SELECT [" + String.join("], [", columnNames)
+                + "] FROM [" + table + "] WHERE [" + rowIdColumn + "] BETWEEN ? AND ?")) {
+            select.setLong(1, firstRowId);
+            select.setLong(2, lastRowId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    Object[] row = new Object[columnNames.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void addCommitListener(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    @Override
+    public void addRejectListener(Consumer<Object[]> listener) {
+        rejectListeners.add(listener);
+    }
+
+    @Override
+    public void setDeferCommits(boolean defer) {
+        this.deferCommits = defer;
+    }
+
+    @Override
+    public void checkpoint() throws SQLException {
+        if (uncommitted.size() >= commitInterval) {
+            flush();
+        }
+        checkpointRows = uncommitted.size();
+        checkpointChanges = changes.size();
+    }
+
+    // Rolls the transaction back and replays what came before the checkpoint
+    @Override
+    public void rollback() throws SQLException {
+        pstmt.clearBatch();
+        batched = 0;
+        conn.rollback();
+        List<Object[]> discarded = new ArrayList<>(uncommitted.subList(checkpointRows, uncommitted.size()));
+        uncommitted.subList(checkpointRows, uncommitted.size()).clear();
+        changes.subList(checkpointChanges, changes.size()).clear();
+        replayUncommitted();
+        for (int r = discarded.size() - 1; r >= 0; r--) {
+            for (Consumer<Object[]> listener : rejectListeners) {
+                listener.accept(discarded.get(r));
+            }
+        }
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+    }
+
+    @Override
+    public long getInserted() {
+        return inserted;
+    }
+
+    @Override
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("Inserted %d records (%d failed) in %.1fs, %.0f rows/sec",
+                inserted, failed, seconds, seconds > 0 ? inserted / seconds : 0);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (aborted) {
+                pstmt.clearBatch();
+                batched = 0;
+                conn.rollback();
+                uncommitted.clear();
+                changes.clear();
+            } else {
+                flush();
+            }
+        } finally {
+            pstmt.close();
+            if (update != null) {
+                update.close();
+            }
+            if (ownsConnection) {
+                conn.close();
+            }
+        }
+    }
+
+    static void bind(PreparedStatement pstmt, Object[] row, int[] sqlTypes) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null) {
+                pstmt.setNull(i + 1, sqlTypes[i]);
+            } else {
+                pstmt.setObject(i + 1, row[i]);
+            }
+        }
+    }
+
+    private interface sqlChange {
+        void apply() throws SQLException;
+    }
+
+    // A delete or update since the last commit; position is the number of rows added before it
+    private static final class pendingChange {
+        final int position;
+        final sqlChange change;
+
+        pendingChange(int position, sqlChange change) {
+            this.position = position;
+            this.change = change;
+        }
+    }
+}
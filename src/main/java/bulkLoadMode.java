@@ -0,0 +1,116 @@
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.Index;
+import com.healthmarketscience.jackcess.Table;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// UCanAccess connection settings for loading many rows into one table of an existing Access file.
+//
+// UCanAccess mirrors the whole file into HSQLDB and keeps every index of the mirror up to date on
+// each insert, on top of the copy Jackcess maintains in the file itself. In bulk mode the mirror
+// skips the plain (non-unique, non-key) indexes, which only serve queries; the file's own indexes
+// stay complete, and the mirror builds them again the next time the file is opened. Neither
+// Jackcess nor UCanAccess can drop an index from an Access table, so the file's indexes are still
+// written, but only when a commit flushes their pages.
+//
+//   Bulk_load=auto|on|off         auto: on once the input is at least Bulk_load_threshold_mb (default 64)
+//   Bulk_mirror=auto|memory|disk  auto: on disk when input plus existing output pass a quarter of the heap
+//
+// A bulk connection is also opened exclusively and releases its mirror as soon as it closes, rather
+// than keeping it cached for later connections; so it suits one long connection, not one per row.
+public class bulkLoadMode {
+    private final boolean enabled;
+    private final boolean diskMirror;
+
+    private bulkLoadMode(boolean enabled, boolean diskMirror) {
+        this.enabled = enabled;
+        this.diskMirror = diskMirror;
+    }
+
+    public static bulkLoadMode off() {
+        return new bulkLoadMode(false, false);
+    }
+
+    // Sizes the run from the input files still to load and the output it appends to, if any. Only as
+    // many files are measured as the decisions need, so a list still being scanned is not waited for.
+    public static bulkLoadMode fromConfig(Properties config, List<File> files, String outputMdbPath) {
+        long outputBytes = new File(outputMdbPath).length();
+        String mode = config.getProperty("Bulk_load", "auto").toLowerCase().trim();
+        long threshold = Long.parseLong(config.getProperty("Bulk_load_threshold_mb", "64").trim()) * 1024 * 1024;
+        if (!mode.equals("on") && !mode.equals("off") && !mode.equals("auto")) {
+            System.err.println("Unknown Bulk_load '" + mode + "', using auto");
+            mode = "auto";
+        }
+        String mirror = config.getProperty("Bulk_mirror", "auto").toLowerCase().trim();
+        boolean autoMirror = !mirror.equals("disk") && !mirror.equals("memory");
+        long mirrorLimit = Runtime.getRuntime().maxMemory() / 4;
+
+        long inputBytes = 0;
+        for (File file : files) {
+            if ((!mode.equals("auto") || inputBytes >= threshold) && (!autoMirror || inputBytes + outputBytes > mirrorLimit)) {
+                break;
+            }
+            inputBytes += file.length();
+        }
+        boolean enabled = mode.equals("on") || (mode.equals("auto") && inputBytes >= threshold);
+        boolean diskMirror = mirror.equals("disk") || (autoMirror && inputBytes + outputBytes > mirrorLimit);
+        return new bulkLoadMode(enabled, diskMirror);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // The UCanAccess URL for mdbPath, with the bulk settings when enabled
+    public String url(String mdbPath) {
+        String url = "jdbc:ucanaccess://" + mdbPath;
+        if (!enabled) {
+            return url;
+        }
+        return url + ";skipIndexes=true;openExclusive=true;immediatelyReleaseResources=true"
+                + (diskMirror ? ";memory=false" : "");
+    }
+
+    // Lists the indexes of the table the mirror leaves out, as "name(column, ...)"
+    public List<String> deferredIndexes(String mdbPath, String tableName) throws IOException {
+        List<String> deferred = new ArrayList<>();
+        if (!enabled) {
+            return deferred;
+        }
+        try (Database db = new DatabaseBuilder(new File(mdbPath)).setReadOnly(true).open()) {
+            Table table = db.getTable(tableName);
+            if (table == null) {
+                return deferred;
+            }
+            for (Index index : table.getIndexes()) {
+                if (index.isPrimaryKey() || index.isUnique() || index.isForeignKey()) {
+                    continue;
+                }
+                List<String> columns = new ArrayList<>();
+                for (Index.Column column : index.getColumns()) {
+                    columns.add(column.getName());
+                }
+                deferred.add(index.getName() + "(" + String.join(", ", columns) + ")");
+            }
+        }
+        return deferred;
+    }
+
+    // Prints what bulk mode does for this table, before the load opens it
+    public void announce(String mdbPath, String tableName) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<String> deferred = deferredIndexes(mdbPath, tableName);
+            System.out.println("Bulk load into " + tableName + " (" + (diskMirror ? "disk" : "memory") + " mirror)"
+                    + (deferred.isEmpty() ? "" : ", mirror skips indexes " + String.join(", ", deferred)));
+        } catch (IOException e) {
+            System.err.println("Error reading indexes of " + tableName + ": " + e.getMessage());
+        }
+    }
+}
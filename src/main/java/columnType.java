@@ -0,0 +1,365 @@
+import com.healthmarketscience.jackcess.Column;
+import com.healthmarketscience.jackcess.ColumnBuilder;
+import com.healthmarketscience.jackcess.DataType;
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.Table;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// The Access type of a dataBase column. With Column_types=infer (the default) it is worked out from
+// every value the column is to hold, before the table is created:
+//   LONG     whole numbers that fit 32 bits, written without leading zeros or a sign (so 0071 stays text)
+//   DOUBLE   decimals of up to 15 digits that read back unchanged (no trailing zeros)
+//   DATE     dates, all in one of MM/dd/yyyy, M/d/yyyy and yyyy-MM-dd
+//   TEXT     anything else, MEMO when a value is longer than 255 characters
+// Blank values are NULL in LONG, DOUBLE and DATE columns. Text columns of an inferred table store
+// their characters compressed (one byte each when they fit). Column_types=text keeps every column
+// TEXT(255) as before. An append keeps the types earlier runs gave the table's columns, and stops
+// before writing anything when a new value does not fit one of them (see firstMisfit).
+public class columnType {
+    // Parsed by parseDate, in order of preference
+    private static final String[] DATE_FORMATS = {"MM/dd/yyyy", "M/d/yyyy", "yyyy-MM-dd"};
+    private static final int PADDED = 0;
+    private static final int ISO = 2;
+    private static final int TEXT_LENGTH = 255;
+    // Digits a double holds exactly
+    private static final int DECIMAL_DIGITS = 15;
+
+    static final columnType TEXT = new columnType(DataType.TEXT, -1);
+
+    private final DataType type;
+    // The DATE_FORMATS entry of the values of an inferred DATE column; -1 tries each
+    private final int dateFormat;
+
+    private columnType(DataType type, int dateFormat) {
+        this.type = type;
+        this.dateFormat = dateFormat;
+    }
+
+    // Column_types=infer or text
+    public static boolean inferred(Properties config) {
+        String mode = config.getProperty("Column_types", "infer").toLowerCase().trim();
+        if (!mode.equals("infer") && !mode.equals("text")) {
+            throw new IllegalArgumentException("Column_types must be infer or text, not '" + mode + "'");
+        }
+        return mode.equals("infer");
+    }
+
+    // One pass over the records, reading the fields at ordinals
+    public static columnType[] infer(recordStore records, int[] ordinals) throws IOException {
+        long start = System.nanoTime();
+        inference[] columns = new inference[ordinals.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new inference();
+        }
+        recordStore.cursor record = records.cursor();
+        while (record.next()) {
+            if (!record.isEmpty()) {
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i].add(record.get(ordinals[i]));
+                }
+            }
+        }
+        columnType[] types = new columnType[columns.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = columns[i].result();
+        }
+        if (runMetrics.DEBUG) {
+            System.out.println(String.format("Inferred %d column types in %.1f ms", types.length,
+                    (System.nanoTime() - start) / 1e6));
+        }
+        return types;
+    }
+
+    // The types of the table's existing columns by upper-case name; values for them are converted to
+    // these rather than to inferred ones
+    public static Map<String, columnType> existing(String mdbPath, String tableName) throws IOException {
+        Map<String, columnType> types = new HashMap<>();
+        try (Database db = new DatabaseBuilder(new File(mdbPath)).setReadOnly(true).open()) {
+            Table table = db.getTable(tableName);
+            if (table != null) {
+                for (Column column : table.getColumns()) {
+                    types.put(column.getName().toUpperCase(), of(column.getType()));
+                }
+            }
+        }
+        return types;
+    }
+
+    private static columnType of(DataType type) {
+        if (type == DataType.LONG || type == DataType.DOUBLE || type == DataType.SHORT_DATE_TIME
+                || type == DataType.MEMO) {
+            return new columnType(type, -1);
+        }
+        // Any other column takes the text as it is
+        return TEXT;
+    }
+
+    // For a new column; text is stored compressed
+    public ColumnBuilder column(String name) {
+        ColumnBuilder column = new ColumnBuilder(name, type);
+        if (type == DataType.TEXT) {
+            column.setLengthInUnits(TEXT_LENGTH);
+        }
+        if (type == DataType.TEXT || type == DataType.MEMO) {
+            column.setCompressedUnicode(true);
+        }
+        return column;
+    }
+
+    // For ALTER TABLE ADD COLUMN through UCanAccess
+    public String ddl() {
+        if (type == DataType.LONG) {
+            return "LONG";
+        } else if (type == DataType.DOUBLE) {
+            return "DOUBLE";
+        } else if (type == DataType.SHORT_DATE_TIME) {
+            return "DATETIME";
+        }
+        return type == DataType.MEMO ? "MEMO" : "TEXT(" + TEXT_LENGTH + ")";
+    }
+
+    public int sqlType() {
+        if (type == DataType.LONG) {
+            return Types.INTEGER;
+        } else if (type == DataType.DOUBLE) {
+            return Types.DOUBLE;
+        } else if (type == DataType.SHORT_DATE_TIME) {
+            return Types.DATE;
+        }
+        return type == DataType.MEMO ? Types.LONGVARCHAR : Types.VARCHAR;
+    }
+
+    // Whether the column stores text without changing it: by the same rules inference types a column
+    // by, so "0071" or "1.50" do not fit a number column
+    public boolean holds(String text) {
+        if (text == null) {
+            return true;
+        }
+        if (type == DataType.TEXT) {
+            return text.length() <= TEXT_LENGTH;
+        } else if (type == DataType.MEMO || text.trim().isEmpty()) {
+            return true;
+        } else if (type == DataType.LONG) {
+            return isInteger(text);
+        } else if (type == DataType.DOUBLE) {
+            return isInteger(text) || isDecimal(text);
+        }
+        for (int f = 0; f < DATE_FORMATS.length; f++) {
+            if ((dateFormat < 0 || dateFormat == f) && parseDate(text, f) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The value to store for text. Appends check their values with firstMisfit first, so a value the
+    // column cannot hold is only reported here, and stored as NULL, if that check was skipped.
+    public Object convert(String text) {
+        if (type == DataType.TEXT || type == DataType.MEMO) {
+            return text;
+        }
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        if (!holds(text)) {
+            System.err.println("Error converting value to " + ddl() + ": '" + text + "' does not fit the column");
+            return null;
+        }
+        if (type == DataType.LONG) {
+            return Integer.valueOf(text);
+        } else if (type == DataType.DOUBLE) {
+            return Double.valueOf(text);
+        }
+        for (int f = 0; f < DATE_FORMATS.length; f++) {
+            LocalDate date = dateFormat < 0 || dateFormat == f ? parseDate(text, f) : null;
+            if (date != null) {
+                return java.sql.Date.valueOf(date);
+            }
+        }
+        return null;
+    }
+
+    // The first value (reading the fields at ordinals) that its column's type does not hold, or null
+    // when every value fits; columns with a null type are not checked
+    public static misfit firstMisfit(recordStore records, int[] ordinals, columnType[] types) throws IOException {
+        recordStore.cursor record = records.cursor();
+        for (int r = 0; record.next(); r++) {
+            if (record.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < types.length; i++) {
+                String value = record.get(ordinals[i]);
+                if (types[i] != null && !types[i].holds(value)) {
+                    return new misfit(r, i, value);
+                }
+            }
+        }
+        return null;
+    }
+
+    public static final class misfit {
+        final int record;
+        final int column;
+        final String value;
+
+        misfit(int record, int column, String value) {
+            this.record = record;
+            this.column = column;
+            this.value = value;
+        }
+    }
+
+    boolean isText() {
+        return type == DataType.TEXT || type == DataType.MEMO;
+    }
+
+    @Override
+    public String toString() {
+        return ddl();
+    }
+
+    // Narrows the type of one column as its values are added; result() is the narrowest type holding them all
+    static final class inference {
+        private boolean integers = true;
+        private boolean decimals = true;
+        // Bit f set while every date so far parses with DATE_FORMATS[f]
+        private int dateFormats = (1 << DATE_FORMATS.length) - 1;
+        private int maxLength;
+        private boolean valued;
+
+        void add(String value) {
+            if (value == null) {
+                return;
+            }
+            maxLength = Math.max(maxLength, value.length());
+            if (value.trim().isEmpty() || !(integers || decimals || dateFormats != 0)) {
+                return;
+            }
+            valued = true;
+            if (integers && !isInteger(value)) {
+                integers = false;
+            }
+            if (decimals && !isInteger(value) && !isDecimal(value)) {
+                decimals = false;
+            }
+            if (dateFormats != 0) {
+                dateFormats &= dateFormats(value);
+            }
+        }
+
+        columnType result() {
+            if (valued && integers) {
+                return new columnType(DataType.LONG, -1);
+            } else if (valued && decimals) {
+                return new columnType(DataType.DOUBLE, -1);
+            } else if (valued && dateFormats != 0) {
+                return new columnType(DataType.SHORT_DATE_TIME, Integer.numberOfTrailingZeros(dateFormats));
+            }
+            return maxLength > TEXT_LENGTH ? new columnType(DataType.MEMO, -1) : TEXT;
+        }
+
+        private int dateFormats(String value) {
+            int formats = 0;
+            for (int f = 0; f < DATE_FORMATS.length; f++) {
+                if ((dateFormats & 1 << f) != 0 && parseDate(value, f) != null) {
+                    formats |= 1 << f;
+                }
+            }
+            return formats;
+        }
+    }
+
+    // The date value holds in DATE_FORMATS[format], or null; Access dates start at year 100
+    static LocalDate parseDate(String value, int format) {
+        int year;
+        int month;
+        int day;
+        if (format == ISO) {
+            if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+                return null;
+            }
+            year = number(value, 0, 4);
+            month = number(value, 5, 7);
+            day = number(value, 8, 10);
+        } else {
+            int first = value.indexOf('/');
+            int second = value.indexOf('/', first + 1);
+            if (first < 0 || second < 0 || value.length() - second != 5) {
+                return null;
+            }
+            boolean padded = first == 2 && second == 5;
+            if (format == PADDED ? !padded : first < 1 || first > 2 || second - first < 2 || second - first > 3) {
+                return null;
+            }
+            month = number(value, 0, first);
+            day = number(value, first + 1, second);
+            year = number(value, second + 1, value.length());
+        }
+        if (year < 100 || month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    // The digits of value from..to as a number, or -1
+    private static int number(String value, int from, int to) {
+        int number = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + c - '0';
+        }
+        return number;
+    }
+
+    // -?[1-9][0-9]* or 0, within the range of an Access LONG
+    static boolean isInteger(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int digits = value.length() - start;
+        if (digits < 1 || digits > 10 || !allDigits(value, start, value.length())) {
+            return false;
+        }
+        if (value.charAt(start) == '0') {
+            return value.length() == 1;
+        }
+        long number = Long.parseLong(value);
+        return number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+    }
+
+    // -?(0|[1-9][0-9]*)\.[0-9]*[1-9], within the digits a double holds
+    static boolean isDecimal(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int point = value.indexOf('.');
+        if (point <= start || point == value.length() - 1 || value.length() - start - 1 > DECIMAL_DIGITS) {
+            return false;
+        }
+        if (!allDigits(value, start, point) || !allDigits(value, point + 1, value.length())) {
+            return false;
+        }
+        if (value.charAt(start) == '0' && point - start > 1) {
+            return false;
+        }
+        return value.charAt(value.length() - 1) != '0';
+    }
+
+    private static boolean allDigits(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,417 @@
+import com.healthmarketscience.jackcess.Column;
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.Row;
+import com.healthmarketscience.jackcess.Table;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Run_mode=coordinator: splits the input files into Coordinator_workers contiguous shards, converts
+// each in its own worker JVM (Run_mode=worker) into a partial output under
+// <Output_path>/coordinator/shard-<n>, then merges the partials in shard order into the usual output:
+// the general dataBase MDB or CSV, or the special Liaison table. Each worker has its own heap and its
+// own UCanAccess connection, so neither caps the whole run.
+//
+//   Coordinator_workers=4          worker JVMs at once
+//   Coordinator_retries=2          further attempts for a shard whose worker dies
+//   Coordinator_jvm_args=          options for the worker JVMs, e.g. -Xmx2g
+//   Coordinator_keep_partials=false
+//
+// A worker counts as finished when it exits with 0 and has written its run metrics; otherwise only
+// its shard runs again. The merge copies MDB rows with Jackcess Table.addRows (the dataBase table
+// gains any columns a later shard has, like an incremental append) and CSV partials byte for byte.
+// With Column_types=infer the workers write text partials and the merge types the dataBase columns
+// from the rows of all of them, so every shard's values fit.
+// Incremental, Shard_key and Dedup_keys need the whole run in one process and are ignored here.
+public class coordinator {
+    private static final Pattern METRIC = Pattern.compile("\"(files|rows|failedRows)\": (\\d+)");
+
+    private final Properties config;
+    private final boolean special;
+    private final boolean csv;
+    private final boolean typed;
+    private final int workers;
+    private final int retries;
+    private final File workDir;
+
+    private coordinator(Properties config) {
+        this.config = config;
+        this.special = config.getProperty("Handling_type", "general").toLowerCase().trim().equals("special");
+        this.csv = !special && config.getProperty("Output_format", "mdb").toLowerCase().trim().equals("csv");
+        this.typed = !special && !csv && columnType.inferred(config);
+        this.workers = Math.max(1, Integer.parseInt(config.getProperty("Coordinator_workers", "4").trim()));
+        this.retries = Math.max(0, Integer.parseInt(config.getProperty("Coordinator_retries", "2").trim()));
+        this.workDir = new File(config.getProperty("Output_path"), "coordinator");
+    }
+
+    // False when a shard failed or the merge did
+    public static boolean run(Properties config) {
+        coordinator coordinator = new coordinator(config);
+        try {
+            return coordinator.convert();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error coordinating workers: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean convert() throws IOException {
+        long start = System.nanoTime();
+        for (String key : new String[] { "Dedup_keys", "Shard_key" }) {
+            String value = config.getProperty(key, "").trim();
+            if (!value.isEmpty() && !value.equalsIgnoreCase("none")) {
+                System.err.println("Warning: " + key + " is not supported in coordinator mode; ignored");
+            }
+        }
+        if (Boolean.parseBoolean(config.getProperty("Incremental", "false").trim())) {
+            System.err.println("Warning: Incremental is not supported in coordinator mode; the output is rewritten");
+        }
+
+        List<File> files = new ArrayList<>(inputFiles.scan(config, false));
+        if (files.isEmpty()) {
+            System.out.println("No " + config.getProperty("input_ext", "QCA") + " files found in the directory.");
+            return true;
+        }
+        // Filled once here, so the workers only read the schema cache
+        try {
+            schemaCache.loadFields(config.getProperty("Schema_MDB"), config.getProperty("Schema_cache"));
+        } catch (Exception e) {
+            System.err.println("Warning: Could not preload the schema: " + e.getMessage());
+        }
+
+        int shardCount = Math.min(workers, files.size());
+        deleteTree(workDir);
+        List<shard> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            List<File> shardFiles = files.subList(files.size() * i / shardCount, files.size() * (i + 1) / shardCount);
+            shards.add(new shard(i + 1, new File(workDir, "shard-" + (i + 1)), shardFiles));
+        }
+        System.out.println("Coordinator: " + files.size() + " files in " + shardCount + " shards");
+
+        ExecutorService pool = Executors.newFixedThreadPool(shardCount, qcaPipeline.namedThreads("coordinator"));
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (shard target : shards) {
+            results.add(pool.submit(() -> runShard(target, shardCount)));
+        }
+        boolean complete = true;
+        try {
+            for (Future<Boolean> result : results) {
+                complete &= result.get();
+            }
+        } catch (Exception e) {
+            throw new IOException("Worker supervision failed: " + e.getMessage(), e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!complete) {
+            System.err.println("Error: Not all shards converted; partial outputs left in " + workDir);
+            return false;
+        }
+
+        long mergeStart = System.nanoTime();
+        File output = merge(shards);
+        long[] totals = new long[3];
+        for (shard target : shards) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += target.metrics[i];
+            }
+        }
+        System.out.println(String.format("Coordinator: %d files, %d rows (%d failed) in %.1fs, merge %.1fs%s",
+                totals[0], totals[1], totals[2], (System.nanoTime() - start) / 1e9,
+                (System.nanoTime() - mergeStart) / 1e9, output != null ? ", output " + output : ""));
+        if (!Boolean.parseBoolean(config.getProperty("Coordinator_keep_partials", "false").trim())) {
+            deleteTree(workDir);
+        }
+        return true;
+    }
+
+    // Runs the shard's worker until it finishes or the attempts run out
+    private boolean runShard(shard target, int shardCount) throws IOException, InterruptedException {
+        for (int attempt = 1; attempt <= retries + 1; attempt++) {
+            deleteTree(target.dir);
+            File outDir = new File(target.dir, "out");
+            if (!outDir.mkdirs()) {
+                throw new IOException("Cannot create " + outDir);
+            }
+            Path list = new File(target.dir, "files.txt").toPath();
+            List<String> paths = new ArrayList<>();
+            for (File file : target.files) {
+                paths.add(file.getAbsolutePath());
+            }
+            Files.write(list, paths, StandardCharsets.UTF_8);
+
+            Properties workerConfig = new Properties();
+            workerConfig.putAll(config);
+            workerConfig.setProperty("Run_mode", "worker");
+            workerConfig.setProperty("Input_list", list.toString());
+            workerConfig.setProperty("Output_path", outDir.getPath());
+            workerConfig.setProperty("Metrics_path", new File(target.dir, "pnp-metrics").getPath());
+            workerConfig.setProperty("Incremental", "false");
+            workerConfig.setProperty("Shard_key", "none");
+            workerConfig.setProperty("Dedup_keys", "");
+            workerConfig.setProperty("Progress_interval", "0");
+            // Workers may replay a spool but not record into it all at once
+            if (!config.getProperty("Spool_path", "").trim().isEmpty()) {
+                workerConfig.setProperty("Spool_mode", "replay");
+            }
+            if (typed) {
+                workerConfig.setProperty("Column_types", "text");
+            }
+            if (config.getProperty("Worker_threads", "").trim().isEmpty()) {
+                int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / shardCount);
+                workerConfig.setProperty("Worker_threads", String.valueOf(threads));
+            }
+            File configFile = new File(target.dir, "config.properties");
+            try (OutputStream out = new FileOutputStream(configFile)) {
+                workerConfig.store(out, "Shard " + target.number);
+            }
+
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            String jvmArgs = config.getProperty("Coordinator_jvm_args", "").trim();
+            if (!jvmArgs.isEmpty()) {
+                command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+            }
+            // A worker out of heap exits instead of limping on, so its shard is retried
+            command.add("-XX:+ExitOnOutOfMemoryError");
+            command.add("-Dpnp.config=" + configFile.getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("pnpRefTool");
+            File log = new File(target.dir, "worker.log");
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(log).redirectInput(ProcessBuilder.Redirect.from(new File(nullDevice()))).start();
+            long start = System.nanoTime();
+            int exit = process.waitFor();
+            File metrics = new File(target.dir, "pnp-metrics.json");
+            if (exit == 0 && metrics.isFile()) {
+                Matcher m = METRIC.matcher(new String(Files.readAllBytes(metrics.toPath()), StandardCharsets.UTF_8));
+                while (m.find()) {
+                    int slot = m.group(1).equals("files") ? 0 : m.group(1).equals("rows") ? 1 : 2;
+                    target.metrics[slot] = Long.parseLong(m.group(2));
+                }
+                System.out.println(String.format("Shard %d: %d files, %d rows in %.1fs", target.number,
+                        target.metrics[0], target.metrics[1], (System.nanoTime() - start) / 1e9));
+                return true;
+            }
+            System.err.println("Shard " + target.number + ": worker "
+                    + (exit == 0 ? "wrote no metrics" : "exited with " + exit) + " (log " + log + ")"
+                    + (attempt <= retries ? ", retrying" : ", giving up"));
+        }
+        return false;
+    }
+
+    private static String nullDevice() {
+        return File.separatorChar == '\\' ? "NUL" : "/dev/null";
+    }
+
+    // Combines the partials in shard order into the final output; returns it, or null when no shard
+    // produced any output. A shard that loaded rows must have left its partial.
+    private File merge(List<shard> shards) throws IOException {
+        List<File> partials = new ArrayList<>();
+        for (shard target : shards) {
+            File partial = partialOutput(target);
+            if (partial != null) {
+                partials.add(partial);
+            } else if (target.metrics[1] > 0) {
+                throw new IOException("Shard " + target.number + " loaded " + target.metrics[1]
+                        + " rows but left no output; partial outputs left in " + workDir);
+            }
+        }
+        if (partials.isEmpty()) {
+            return null;
+        }
+        // Named as a single run would name it: from the first input file, or after Output_MDB
+        File output = new File(config.getProperty("Output_path"), partials.get(0).getName());
+        if (typed) {
+            mergeTyped(partials, output);
+            return output;
+        }
+        Files.copy(partials.get(0).toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Every special partial starts as a copy of the template, with whatever rows it already holds
+        long templateRows = special ? rowCount(new File(config.getProperty("Template_MDB")), "Liaison") : 0;
+        for (File partial : partials.subList(1, partials.size())) {
+            if (csv) {
+                appendCsv(partial, output);
+            } else {
+                appendTable(partial, output, special ? "Liaison" : "dataBase", templateRows);
+            }
+        }
+        return output;
+    }
+
+    private File partialOutput(shard target) {
+        File outDir = new File(target.dir, "out");
+        if (special) {
+            File partial = new File(outDir, Paths.get(config.getProperty("Output_MDB")).getFileName().toString());
+            return partial.isFile() ? partial : null;
+        }
+        String extension = csv ? generalHandler.csvExtension(config) : ".mdb";
+        File[] outputs = outDir.listFiles((dir, name) -> name.toLowerCase().endsWith(extension));
+        return outputs != null && outputs.length > 0 ? outputs[0] : null;
+    }
+
+    // Appends the partial CSV without its header line (a gzip partial's first member)
+    private static void appendCsv(File partial, File output) throws IOException {
+        long headerEnd = csvRecordWriter.headerLength(partial.toPath());
+        try (FileChannel from = FileChannel.open(partial.toPath(), StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(output.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = headerEnd;
+            long size = from.size();
+            while (position < size) {
+                position += from.transferTo(position, size - position, to);
+            }
+        }
+    }
+
+    private static long rowCount(File mdb, String tableName) throws IOException {
+        try (Database db = new DatabaseBuilder(mdb).setReadOnly(true).open()) {
+            Table table = db.getTable(tableName);
+            return table == null ? 0 : table.getRowCount();
+        }
+    }
+
+    // Copies the table's rows after the first skip, without its autonumber column, to the end of the
+    // same table in output
+    private static void appendTable(File partial, File output, String tableName, long skip) throws IOException {
+        try (Database source = new DatabaseBuilder(partial).setReadOnly(true).open()) {
+            Table table = source.getTable(tableName);
+            if (table == null) {
+                return;
+            }
+            List<String> columns = new ArrayList<>();
+            for (Column column : table.getColumns()) {
+                if (!column.isAutoNumber()) {
+                    columns.add(column.getName());
+                }
+            }
+            String[] columnNames = columns.toArray(new String[0]);
+            try (jackcessRowWriter writer = jackcessRowWriter.append(output.getPath(), tableName, columnNames,
+                    5000, Integer.MAX_VALUE)) {
+                long seen = 0;
+                for (Row row : table) {
+                    if (seen++ < skip) {
+                        continue;
+                    }
+                    Object[] values = new Object[columnNames.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = row.get(columnNames[i]);
+                    }
+                    writer.add(values);
+                }
+                writer.flush();
+            }
+        }
+    }
+
+    // Reads the text dataBase tables of the partials twice: once to infer the column types, then to
+    // copy their rows into a new table of those types
+    private static void mergeTyped(List<File> partials, File output) throws IOException {
+        // By upper-case name, in order of first appearance
+        Map<String, String> names = new LinkedHashMap<>();
+        Map<String, columnType.inference> columns = new LinkedHashMap<>();
+        for (File partial : partials) {
+            try (Database source = new DatabaseBuilder(partial).setReadOnly(true).open()) {
+                Table table = source.getTable("dataBase");
+                if (table == null) {
+                    continue;
+                }
+                List<String> valueColumns = new ArrayList<>();
+                for (Column column : table.getColumns()) {
+                    if (!column.isAutoNumber()) {
+                        valueColumns.add(column.getName());
+                        names.putIfAbsent(column.getName().toUpperCase(), column.getName());
+                        columns.putIfAbsent(column.getName().toUpperCase(), new columnType.inference());
+                    }
+                }
+                for (Row row : table) {
+                    for (String name : valueColumns) {
+                        Object value = row.get(name);
+                        columns.get(name.toUpperCase()).add(value == null ? null : value.toString());
+                    }
+                }
+            }
+        }
+        String[] columnNames = names.values().toArray(new String[0]);
+        columnType[] types = new columnType[columnNames.length];
+        int c = 0;
+        for (columnType.inference column : columns.values()) {
+            types[c++] = column.result();
+        }
+
+        Files.deleteIfExists(output.toPath());
+        try (jackcessRowWriter writer = jackcessRowWriter.create(output.getPath(), "dataBase", columnNames, types,
+                5000, Integer.MAX_VALUE)) {
+            for (File partial : partials) {
+                try (Database source = new DatabaseBuilder(partial).setReadOnly(true).open()) {
+                    Table table = source.getTable("dataBase");
+                    if (table == null) {
+                        continue;
+                    }
+                    // The partial's name for each output column, or null when it lacks the column
+                    String[] sourceNames = new String[columnNames.length];
+                    for (Column column : table.getColumns()) {
+                        String name = names.get(column.getName().toUpperCase());
+                        if (!column.isAutoNumber() && name != null) {
+                            sourceNames[Arrays.asList(columnNames).indexOf(name)] = column.getName();
+                        }
+                    }
+                    for (Row row : table) {
+                        Object[] values = new Object[columnNames.length];
+                        for (int i = 0; i < values.length; i++) {
+                            Object value = sourceNames[i] == null ? null : row.get(sourceNames[i]);
+                            values[i] = types[i].convert(value == null ? null : value.toString());
+                        }
+                        writer.add(values);
+                    }
+                }
+            }
+            writer.flush();
+        }
+    }
+
+    private static void deleteTree(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    private static final class shard {
+        final int number;
+        final File dir;
+        final List<File> files;
+        // files, rows, failed rows, from the worker's run metrics
+        final long[] metrics = new long[3];
+
+        shard(int number, File dir, List<File> files) {
+            this.number = number;
+            this.dir = dir;
+            this.files = files;
+        }
+    }
+}
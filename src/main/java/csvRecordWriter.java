@@ -0,0 +1,196 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+// Writes records as they are produced under a header fixed up front, so nothing is buffered per run.
+// Each row is encoded to UTF-8 in one pass over its values into a reused byte buffer. A file named
+// *.gz is written through gzipBlockStream, compressed on every core; its header line is a gzip
+// member of its own, so a merge can drop it without decompressing the rows.
+public class csvRecordWriter implements AutoCloseable {
+    private final FileOutputStream stream;
+    private final OutputStream out;
+    private final String[] headers;
+    private byte[] row = new byte[4096];
+    private int length;
+    private long rows;
+
+    public csvRecordWriter(String outputFile, String[] headers) throws IOException {
+        this(outputFile, headers, false);
+    }
+
+    // In append mode the header is only written when the file is new or empty
+    public csvRecordWriter(String outputFile, String[] headers, boolean append) throws IOException {
+        boolean writeHeader = !append || new File(outputFile).length() == 0;
+        this.stream = new FileOutputStream(outputFile, append);
+        this.out = isGzip(outputFile) ? new gzipBlockStream(stream, Runtime.getRuntime().availableProcessors())
+                : new BufferedOutputStream(stream, 1 << 20);
+        this.headers = headers;
+        if (writeHeader) {
+            byte[] header = (String.join(",", headers) + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write(header, 0, header.length);
+            if (out instanceof gzipBlockStream) {
+                out.flush();
+            }
+        }
+    }
+
+    static boolean isGzip(String outputFile) {
+        return outputFile.toLowerCase().endsWith(".gz");
+    }
+
+    // True when the file starts with exactly this header, i.e. it can be appended to
+    public static boolean hasHeader(String outputFile, String[] headers) {
+        try (InputStream in = open(outputFile);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return String.join(",", headers).equals(reader.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static InputStream open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return isGzip(file) ? new GZIPInputStream(in) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Bytes taken by the header of a file this class wrote: its first line, or its first gzip member
+    public static long headerLength(Path file) throws IOException {
+        if (isGzip(file.toString())) {
+            return gzipBlockStream.firstMemberLength(file);
+        }
+        long length = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                length++;
+                if (b == '\n') {
+                    break;
+                }
+            }
+        }
+        return length;
+    }
+
+    public void write(Map<String, String> record) throws IOException {
+        length = 0;
+        for (int i = 0; i < headers.length; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            escape(record.getOrDefault(headers[i], ""));
+        }
+        endRow();
+    }
+
+    // values in header order, e.g. a row read from a recordStore
+    public void write(String[] values) throws IOException {
+        length = 0;
+        for (int i = 0; i < headers.length; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            escape(values[i]);
+        }
+        endRow();
+    }
+
+    private void endRow() throws IOException {
+        append('\n');
+        out.write(row, 0, length);
+        rows++;
+        runMetrics.rowsWritten(1);
+    }
+
+    private void append(char c) {
+        if (length == row.length) {
+            row = Arrays.copyOf(row, row.length * 2);
+        }
+        row[length++] = (byte) c;
+    }
+
+    // Appends value as UTF-8 with quotes doubled, quoted when it holds a comma, quote or newline.
+    // The quoting is only known at the end, so a quoted value is moved up by one byte then.
+    private void escape(String value) {
+        if (value == null) {
+            return;
+        }
+        // At most three bytes per char (a surrogate pair takes four), plus the enclosing quotes
+        int most = length + value.length() * 3 + 2;
+        if (most > row.length) {
+            row = Arrays.copyOf(row, Math.max(row.length * 2, most));
+        }
+        byte[] b = row;
+        int start = length;
+        int n = length;
+        boolean quote = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    b[n++] = '"';
+                    quote = true;
+                } else if (c == ',' || c == '\n') {
+                    quote = true;
+                }
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xc0 | c >> 6);
+                b[n++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[n++] = (byte) (0xf0 | codePoint >> 18);
+                b[n++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                b[n++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                b[n++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired, as the JDK's UTF-8 encoder replaces it
+                b[n++] = '?';
+            } else {
+                b[n++] = (byte) (0xe0 | c >> 12);
+                b[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b[n++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        if (quote) {
+            System.arraycopy(b, start, b, start + 1, n - start);
+            b[start] = '"';
+            b[n + 1] = '"';
+            n += 2;
+        }
+        length = n;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // Pushes buffered rows to the file and returns its length
+    public long flush() throws IOException {
+        out.flush();
+        return stream.getChannel().position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+// Persistent set of 64-bit fingerprints over the Dedup_keys columns of the rows already in an
+// output table, memory-mapped from <output>.dedup. Open addressing with linear probing keeps a
+// lookup at one or two cache lines however many records earlier runs loaded; the table doubles
+// once half full.
+//
+// Rows are admitted as pending and reach the mapped table only when the output commits them
+// (commit(), from the writer's commit listener), so an interrupted run never leaves keys behind
+// for rows it lost. A row the output refuses is taken back out of the pending keys (reject()), so a
+// corrected resend of it is loaded. Keys are compared trimmed and case-insensitively, like Access text columns.
+//
+//   header: magic, capacity (slots, a power of two), count, complete flag; then capacity slots
+public class dedupIndex implements Closeable {
+    private static final long MAGIC = 0x504E504445445550L;
+    private static final int HEADER = 64;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+    // One mapping holds at most 2 GB
+    private static final long MAX_CAPACITY = 1L << 27;
+
+    private final Path path;
+    // The mapped file: path, or path.grow while a grown table could not be moved into place
+    private Path current;
+    private final int[] keyColumns;
+    private final boolean updateDuplicates;
+    private MappedByteBuffer table;
+    private long capacity;
+    private long count;
+    // Keys admitted since the last commit, in order and as an open-addressing set
+    private long[] pending = new long[1024];
+    private long[] pendingSlots = new long[2048];
+    private int pendingCount;
+    // Set by reject(); pendingSlots are rebuilt from pending before they are next used
+    private boolean pendingStale;
+    private long duplicates;
+
+    private dedupIndex(Path path, int[] keyColumns, boolean updateDuplicates) {
+        this.path = path;
+        this.keyColumns = keyColumns;
+        this.updateDuplicates = updateDuplicates;
+    }
+
+    // Returns null when Dedup_keys is not set. Dedup_keys lists output columns separated by "|";
+    // Dedup_action is skip (drop duplicates, the default) or update (overwrite the earlier row).
+    // With fresh set, e.g. because the output was just recreated, earlier keys are discarded.
+    public static dedupIndex open(Properties config, String[] columnNames, String outputFile, boolean fresh)
+            throws IOException {
+        String keys = config.getProperty("Dedup_keys", "").trim();
+        if (keys.isEmpty()) {
+            return null;
+        }
+        String[] keyNames = keys.split("\\|");
+        int[] keyColumns = new int[keyNames.length];
+        for (int k = 0; k < keyNames.length; k++) {
+            keyColumns[k] = -1;
+            for (int i = 0; i < columnNames.length; i++) {
+                if (columnNames[i].equalsIgnoreCase(keyNames[k].trim())) {
+                    keyColumns[k] = i;
+                }
+            }
+            if (keyColumns[k] < 0) {
+                throw new IllegalArgumentException("Dedup_keys column '" + keyNames[k].trim() + "' is not an output column");
+            }
+        }
+        String action = config.getProperty("Dedup_action", "skip").toLowerCase().trim();
+        if (!action.equals("skip") && !action.equals("update")) {
+            throw new IllegalArgumentException("Unknown Dedup_action '" + action + "'");
+        }
+        long expected = Long.parseLong(config.getProperty("Dedup_capacity", "1000000").trim());
+
+        dedupIndex index = new dedupIndex(Paths.get(outputFile + ".dedup"), keyColumns, action.equals("update"));
+        index.load(fresh, expected);
+        return index;
+    }
+
+    private void load(boolean fresh, long expected) throws IOException {
+        // A grown table that could not replace the old file (still mapped on Windows) takes over now
+        Path grown = Paths.get(path + ".grow");
+        if (Files.exists(grown)) {
+            if (!fresh && isComplete(grown)) {
+                Files.move(grown, path, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(grown);
+            }
+        }
+        if (fresh || !Files.exists(path) || !isComplete(path)) {
+            create(path, capacityFor(expected));
+        }
+        map(path);
+        current = path;
+        System.out.println("Dedup index " + path.getFileName() + ": " + count + " known records");
+    }
+
+    private static long capacityFor(long records) {
+        long capacity = 1024;
+        while (capacity < records * 2 && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static boolean isComplete(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            if (raf.length() < HEADER) {
+                return false;
+            }
+            long magic = raf.readLong();
+            long capacity = raf.readLong();
+            raf.readLong();
+            return magic == MAGIC && raf.readLong() == 1 && raf.length() == HEADER + capacity * 8;
+        }
+    }
+
+    private static void create(Path file, long capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER + capacity * 8);
+            raf.writeLong(MAGIC);
+            raf.writeLong(capacity);
+            raf.writeLong(0);
+            raf.writeLong(1);
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        capacity = table.getLong(8);
+        count = table.getLong(16);
+    }
+
+    public int[] getKeyColumns() {
+        return keyColumns;
+    }
+
+    public boolean isUpdate() {
+        return updateDuplicates;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    // FNV-1a over the trimmed, upper-cased key values, finished with a 64-bit mix; 0 when every key is blank
+    public long fingerprint(Object[] row) {
+        long hash = 0xcbf29ce484222325L;
+        boolean blank = true;
+        for (int column : keyColumns) {
+            Object value = row[column];
+            String text = value == null ? "" : value.toString();
+            int from = 0;
+            int to = text.length();
+            while (from < to && Character.isWhitespace(text.charAt(from))) {
+                from++;
+            }
+            while (to > from && Character.isWhitespace(text.charAt(to - 1))) {
+                to--;
+            }
+            for (int i = from; i < to; i++) {
+                char ch = Character.toUpperCase(text.charAt(i));
+                hash = (hash ^ (ch & 0xff)) * 0x100000001b3L;
+                hash = (hash ^ (ch >>> 8)) * 0x100000001b3L;
+            }
+            blank &= from == to;
+            // Column separator, so ("AB", "C") and ("A", "BC") differ
+            hash = (hash ^ 0x1f) * 0x100000001b3L;
+        }
+        if (blank) {
+            return 0;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY || hash == REMOVED ? 1 : hash;
+    }
+
+    // True for a row whose key is new (it is then pending until the next commit); false for a duplicate
+    public boolean admit(Object[] row) {
+        long fingerprint = fingerprint(row);
+        if (fingerprint == 0) {
+            return true;
+        }
+        if (find(fingerprint) >= 0 || pendingContains(fingerprint)) {
+            duplicates++;
+            return false;
+        }
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+            pendingSlots = new long[pending.length * 2];
+            for (int i = 0; i < pendingCount; i++) {
+                addPendingSlot(pending[i]);
+            }
+        }
+        pending[pendingCount++] = fingerprint;
+        addPendingSlot(fingerprint);
+        return true;
+    }
+
+    private boolean pendingContains(long fingerprint) {
+        if (pendingStale) {
+            Arrays.fill(pendingSlots, EMPTY);
+            for (int i = 0; i < pendingCount; i++) {
+                addPendingSlot(pending[i]);
+            }
+            pendingStale = false;
+        }
+        int mask = pendingSlots.length - 1;
+        for (int slot = (int) fingerprint & mask; pendingSlots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (pendingSlots[slot] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPendingSlot(long fingerprint) {
+        int mask = pendingSlots.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (pendingSlots[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        pendingSlots[slot] = fingerprint;
+    }
+
+    // Drops the pending key of an admitted row that the output refused to write or took back. Keys
+    // are searched latest first, so taking back a file's rows in reverse order stays linear.
+    public void reject(Object[] row) {
+        long fingerprint = fingerprint(row);
+        if (fingerprint == 0) {
+            return;
+        }
+        for (int i = pendingCount - 1; i >= 0; i--) {
+            if (pending[i] == fingerprint) {
+                System.arraycopy(pending, i + 1, pending, i, pendingCount - i - 1);
+                pendingCount--;
+                pendingStale = true;
+                return;
+            }
+        }
+    }
+
+    // Forgets the key of a row that is being deleted from the output
+    public void remove(Object[] row) {
+        long fingerprint = fingerprint(row);
+        if (fingerprint == 0) {
+            return;
+        }
+        long slot = find(fingerprint);
+        if (slot >= 0) {
+            table.putLong(offset(slot), REMOVED);
+        }
+    }
+
+    // Moves the pending keys into the mapped table; called once the output has committed their rows
+    public void commit() throws IOException {
+        if (pendingCount == 0) {
+            return;
+        }
+        if ((count + pendingCount) * 2 > capacity && capacity < MAX_CAPACITY) {
+            grow(count + pendingCount);
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            insert(table, capacity, pending[i]);
+        }
+        count += pendingCount;
+        pendingCount = 0;
+        Arrays.fill(pendingSlots, EMPTY);
+        pendingStale = false;
+        table.putLong(16, count);
+        table.force();
+    }
+
+    private long find(long fingerprint) {
+        long mask = capacity - 1;
+        for (long slot = fingerprint & mask, probes = 0; probes < capacity; slot = (slot + 1) & mask, probes++) {
+            long value = table.getLong(offset(slot));
+            if (value == fingerprint) {
+                return slot;
+            }
+            if (value == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean insert(MappedByteBuffer table, long capacity, long fingerprint) {
+        long mask = capacity - 1;
+        for (long slot = fingerprint & mask, probes = 0; probes < capacity; slot = (slot + 1) & mask, probes++) {
+            long value = table.getLong(offset(slot));
+            if (value == EMPTY) {
+                table.putLong(offset(slot), fingerprint);
+                return true;
+            }
+        }
+        System.err.println("Warning: Dedup index is full; further records are not checked");
+        return false;
+    }
+
+    private static int offset(long slot) {
+        return (int) (HEADER + slot * 8);
+    }
+
+    // Rehashes into <path>.grow without removed entries, then puts it in place of the old file.
+    // Dedup_capacity sizes the first table so that this is rare.
+    private void grow(long records) throws IOException {
+        long newCapacity = capacityFor(records * 2);
+        Path grown = current.equals(path) ? Paths.get(path + ".grow") : path;
+        create(grown, newCapacity);
+        MappedByteBuffer newTable;
+        try (FileChannel channel = FileChannel.open(grown, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            newTable = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        // Incomplete until the rehash is done, so a crash meanwhile leaves the old file in charge
+        newTable.putLong(24, 0);
+        long live = 0;
+        for (long slot = 0; slot < capacity; slot++) {
+            long value = table.getLong(offset(slot));
+            if (value != EMPTY && value != REMOVED) {
+                insert(newTable, newCapacity, value);
+                live++;
+            }
+        }
+        newTable.putLong(16, live);
+        newTable.putLong(24, 1);
+        newTable.force();
+
+        table = newTable;
+        capacity = newCapacity;
+        count = live;
+        current = grown;
+        if (!grown.equals(path)) {
+            try {
+                Files.move(grown, path, StandardCopyOption.REPLACE_EXISTING);
+                current = path;
+            } catch (IOException e) {
+                // The old mapping can keep the file locked (Windows); load() finishes the move next time
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (table != null) {
+            table.force();
+            table = null;
+        }
+    }
+}
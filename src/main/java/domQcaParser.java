@@ -0,0 +1,72 @@
+import java.io.File;
+import java.io.IOException;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+// Reference engine: builds the whole DOM, kept for comparison with the streaming engines
+public class domQcaParser implements qcaParser {
+    private final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+
+    @Override
+    public qcaReader open(File qcaFile) throws IOException {
+        Document doc;
+        try {
+            DocumentBuilder dBuilder;
+            synchronized (dbFactory) {
+                dBuilder = dbFactory.newDocumentBuilder();
+            }
+            doc = dBuilder.parse(qcaFile);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error parsing " + qcaFile.getName() + ": " + e.getMessage(), e);
+        }
+        doc.getDocumentElement().normalize();
+        return new domReader(doc.getElementsByTagName("record"));
+    }
+
+    private static class domReader implements qcaReader {
+        private final NodeList records;
+        private int recordIndex = -1;
+        private NodeList subRecords;
+        private int subRecordIndex;
+
+        domReader(NodeList records) {
+            this.records = records;
+        }
+
+        @Override
+        public boolean next(qcaSubRecord subRecord) {
+            while (subRecords == null || subRecordIndex >= subRecords.getLength()) {
+                if (++recordIndex >= records.getLength()) {
+                    return false;
+                }
+                subRecords = ((Element) records.item(recordIndex)).getElementsByTagName("sub-record");
+                subRecordIndex = 0;
+            }
+
+            Element element = (Element) subRecords.item(subRecordIndex++);
+            NodeList fields = element.getElementsByTagName("field");
+            subRecord.reset(recordIndex);
+            for (int k = 0; k < fields.getLength(); k++) {
+                Element field = (Element) fields.item(k);
+                Node value = field.getElementsByTagName("value").item(0);
+                subRecord.add(field.getAttribute("no"), value == null ? "" : value.getTextContent());
+            }
+            return true;
+        }
+
+        @Override
+        public int getRecordCount() {
+            return records.getLength();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiled form of the fieldNumberToName map. Doc types become small ordinals and canonical
+// field numbers become array slots, with the doc-type-specific name already merged over the
+// generic one, so a lookup is one array probe and allocates nothing.
+public class fieldLookupIndex {
+    private static final int GENERIC = 0;
+    private static final int MAX_FIELD_NO = 1 << 16;
+
+    private final String[] names;
+    private final Map<String, Integer> docTypeOrdinals;
+    private final String[] docTypes;
+    // slots[docTypeOrdinal][fieldNo] = name ordinal + 1, 0 when unmapped
+    private final int[][] slots;
+    // Keys whose field number is not a plain decimal, looked up the old way
+    private final Map<String, Integer> irregular;
+
+    private fieldLookupIndex(String[] names, Map<String, Integer> docTypeOrdinals, String[] docTypes,
+            int[][] slots, Map<String, Integer> irregular) {
+        this.names = names;
+        this.docTypeOrdinals = docTypeOrdinals;
+        this.docTypes = docTypes;
+        this.slots = slots;
+        this.irregular = irregular;
+    }
+
+    // Accepts the "fieldNo" / "fieldNo-docType" keys produced by getFieldNumberToNameMapping
+    public static fieldLookupIndex compile(Map<String, String> fieldNumberToName) {
+        Map<String, Integer> nameOrdinals = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> docTypeOrdinals = new HashMap<>();
+        List<String> docTypes = new ArrayList<>();
+        docTypes.add("");
+
+        // First pass: ordinals for names and doc types, and the size of the slot arrays
+        int maxFieldNo = -1;
+        for (Map.Entry<String, String> entry : fieldNumberToName.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            if (!nameOrdinals.containsKey(entry.getValue())) {
+                nameOrdinals.put(entry.getValue(), names.size());
+                names.add(entry.getValue());
+            }
+            String key = entry.getKey();
+            int dash = key.indexOf('-');
+            if (dash >= 0) {
+                String docType = key.substring(dash + 1);
+                if (!docTypeOrdinals.containsKey(docType)) {
+                    docTypeOrdinals.put(docType, docTypes.size());
+                    docTypes.add(docType);
+                }
+            }
+            int fieldNo = parseFieldNo(dash >= 0 ? key.substring(0, dash) : key);
+            maxFieldNo = Math.max(maxFieldNo, fieldNo);
+        }
+
+        int[][] slots = new int[docTypes.size()][maxFieldNo + 1];
+        Map<String, Integer> irregular = new HashMap<>();
+
+        // Generic names first, then the specific ones on top of their doc type's copy
+        for (Map.Entry<String, String> entry : fieldNumberToName.entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue() == null || key.indexOf('-') >= 0) {
+                continue;
+            }
+            int nameOrdinal = nameOrdinals.get(entry.getValue());
+            int fieldNo = parseFieldNo(key);
+            if (fieldNo < 0) {
+                irregular.put(key, nameOrdinal);
+            } else {
+                slots[GENERIC][fieldNo] = nameOrdinal + 1;
+            }
+        }
+        for (int d = 1; d < slots.length; d++) {
+            slots[d] = Arrays.copyOf(slots[GENERIC], slots[GENERIC].length);
+        }
+        for (Map.Entry<String, String> entry : fieldNumberToName.entrySet()) {
+            String key = entry.getKey();
+            int dash = key.indexOf('-');
+            if (entry.getValue() == null || dash < 0) {
+                continue;
+            }
+            int nameOrdinal = nameOrdinals.get(entry.getValue());
+            int fieldNo = parseFieldNo(key.substring(0, dash));
+            if (fieldNo < 0) {
+                irregular.put(key, nameOrdinal);
+            } else {
+                slots[docTypeOrdinals.get(key.substring(dash + 1))][fieldNo] = nameOrdinal + 1;
+            }
+        }
+
+        return new fieldLookupIndex(names.toArray(new String[0]), docTypeOrdinals,
+                docTypes.toArray(new String[0]), slots, irregular);
+    }
+
+    // Resolve once per sub-record; unknown doc types only see the generic names
+    public int docTypeOrdinal(String documentType) {
+        Integer ordinal = docTypeOrdinals.get(documentType);
+        return ordinal == null ? GENERIC : ordinal;
+    }
+
+    // Name ordinal for the field, trying the doc-type-specific mapping before the generic one; -1 if unmapped
+    public int lookup(int docTypeOrdinal, String fieldNo) {
+        int no = parseFieldNo(fieldNo);
+        int[] row = slots[docTypeOrdinal];
+        if (no >= 0) {
+            return no < row.length ? row[no] - 1 : -1;
+        }
+        if (irregular.isEmpty()) {
+            return -1;
+        }
+        Integer ordinal = docTypeOrdinal == GENERIC ? null : irregular.get(fieldNo + "-" + docTypes[docTypeOrdinal]);
+        if (ordinal == null) {
+            ordinal = irregular.get(fieldNo);
+        }
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String name(int ordinal) {
+        return names[ordinal];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // Distinct field names in first-seen order of the source map
+    public String[] names() {
+        return names.clone();
+    }
+
+    // Plain decimal without sign or leading zeros, so "01" keeps missing exactly as the string keys did
+    private static int parseFieldNo(String s) {
+        int length = s.length();
+        if (length == 0 || length > 5 || (length > 1 && s.charAt(0) == '0')) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value < MAX_FIELD_NO ? value : -1;
+    }
+}
@@ -2,13 +2,8 @@ import java.io.*;
 import java.sql.*;
 import java.util.*;
 import java.nio.file.*;
-import java.util.stream.Collectors;
+import java.nio.channels.FileChannel;
 import net.ucanaccess.jdbc.UcanaccessDriver;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 public class generalHandler {
     static {
@@ -23,11 +18,6 @@ public class generalHandler {
     public static void main(String[] args) {
         Properties config = loadConfig("config/config.properties");
 
-        String inputPath = config.getProperty("Input_path");
-        String schemaMdbPath = config.getProperty("Schema_MDB");
-        String outputPath = config.getProperty("Output_path");
-        String inputExt = config.getProperty("input_ext", "QCA");
-
         // Add prompt for output format
         String outputFormat;
         Scanner scanner = new Scanner(System.in);
@@ -41,10 +31,31 @@ public class generalHandler {
         }
         scanner.close();
 
-        Map<String, String> fieldNumberToName = getFieldNumberToNameMapping(schemaMdbPath);
+        run(config, outputFormat);
+    }
+
+    // One conversion of Input_path with the given config; outputFormat is mdb or csv. Returns false
+    // when an error left the output incomplete (the errors are reported as they happen).
+    public static boolean run(Properties config, String outputFormat) {
+        long errors = runMetrics.getOutputErrors();
+        qcaParser parser = qcaSpool.wrap(config, qcaParser.fromConfig(config));
+        try {
+            convert(config, outputFormat, parser);
+        } finally {
+            qcaSpool.finish(parser);
+        }
+        return runMetrics.getOutputErrors() == errors;
+    }
+
+    private static void convert(Properties config, String outputFormat, qcaParser parser) {
+        String schemaMdbPath = config.getProperty("Schema_MDB");
+        String outputPath = config.getProperty("Output_path");
 
-        File inputDir = new File(inputPath);
-        File[] qcaFiles = inputDir.listFiles((dir, name) -> name.toLowerCase().endsWith("." + inputExt.toLowerCase()));
+        Map<String, String> fieldNumberToName = getFieldNumberToNameMapping(schemaMdbPath, config.getProperty("Schema_cache"));
+        fieldLookupIndex fieldIndex = fieldLookupIndex.compile(fieldNumberToName);
+
+        // Found in the background; processing starts with the first file
+        List<File> files = inputFiles.scan(config, false);
 
         //create an output directory if non existent
         try{
@@ -56,27 +67,89 @@ public class generalHandler {
             e.printStackTrace();
         }
 
-        if (qcaFiles != null && qcaFiles.length > 0) {
-            List<Map<String, String>> allRecords = new ArrayList<>();
-            
+        if (!files.isEmpty()) {
             // Get the base name from the first file
-            String baseName = qcaFiles[0].getName().split("-")[0] + "_db";
-            
-            for (File qcaFile : qcaFiles) {
-                System.out.println("Processing file: " + qcaFile.getName());
-                Map<String, String> fieldValues = extractFieldValuesFromXml(qcaFile, fieldNumberToName);
-                if (!fieldValues.isEmpty()) {
-                    allRecords.add(fieldValues);
+            String baseName = files.get(0).getName().split("-")[0] + "_db";
+            qcaPipeline pipeline = qcaPipeline.fromConfig(config);
+            int commitInterval = Integer.parseInt(config.getProperty("Commit_interval", "5000").trim());
+            boolean incremental = Boolean.parseBoolean(config.getProperty("Incremental", "false").trim());
+            String granularity = qcaRowIterator.granularity(config);
+            int rowBuffer = Integer.parseInt(config.getProperty("Row_buffer", "256").trim());
+            runMetrics.startProgress(config);
+            if (!config.getProperty("Dedup_keys", "").trim().isEmpty()) {
+                System.err.println("Warning: Dedup_keys only applies to special handling; duplicates are not checked");
+            }
+
+            if (shardRouter.enabled(config)) {
+                if (incremental) {
+                    System.err.println("Warning: Incremental is not supported with sharded output; the shards are rewritten");
                 }
+                writeShards(config, outputFormat.equals("csv"), pipeline, files, parser, fieldIndex, granularity,
+                        outputPath, baseName);
+                runMetrics.report(config);
+                return;
             }
 
             // Output based on user's choice
             if (outputFormat.equals("csv")) {
-                writeToCSV(allRecords, outputPath + "/" + baseName + ".csv");
+                String outputFile = outputPath + "/" + baseName + csvExtension(config);
+                runManifest manifest = incremental ? runManifest.load(outputFile) : null;
+
+                // Distinct field names in schema order; these are the only keys a record can carry
+                String[] headers = fieldIndex.names();
+                streamToCSV(pipeline, files, parser, fieldIndex, headers, outputFile, commitInterval, manifest,
+                        granularity, rowBuffer);
             } else {
-                String outputMdbPath = outputPath + "/" + baseName + ".mdb";
-                writeToMDB(allRecords, outputMdbPath);
+                String outputMdbPath = (outputPath + "/" + baseName + ".mdb").replace('/', File.separatorChar);
+                runManifest manifest = incremental ? runManifest.load(outputMdbPath) : null;
+                if (manifest != null && manifest.hasCommits() && Files.exists(Paths.get(outputMdbPath))) {
+                    try {
+                        files = manifest.selectPending(files);
+                    } catch (IOException e) {
+                        System.err.println("Error reading input files: " + e.getMessage());
+                        runMetrics.outputFailed();
+                        return;
+                    }
+                }
+
+                int batchSize = Integer.parseInt(config.getProperty("Batch_size", "500").trim());
+                String outputEngine = config.getProperty("Output_engine", "ucanaccess").toLowerCase().trim();
+                if (!granularity.equals("file")) {
+                    streamToMDB(pipeline, files, parser, fieldIndex, outputMdbPath, batchSize, commitInterval,
+                            outputEngine, manifest, granularity, rowBuffer);
+                    runMetrics.report(config);
+                    return;
+                }
+
+                List<File> recordSources = new ArrayList<>();
+                try (recordStore allRecords = new recordStore(fieldIndex.names(), recordStore.memoryLimit(config),
+                        new File(outputPath))) {
+                    // Files are parsed in parallel; results arrive here in input order
+                    runMetrics.expectFiles(files);
+                    pipeline.run(files, qcaFile -> {
+                        if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                        return extractFieldValuesFromXml(parser, qcaFile, fieldIndex);
+                    }, (qcaFile, fieldValues) -> {
+                        // Incremental runs also keep empty results so their files are recorded as loaded
+                        if (!fieldValues.isEmpty() || manifest != null) {
+                            try {
+                                allRecords.add(fieldValues);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            recordSources.add(qcaFile);
+                        }
+                    });
+
+                    writeToMDB(allRecords, recordSources, outputMdbPath, batchSize, commitInterval, outputEngine,
+                            manifest, columnType.inferred(config));
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("Error collecting records: " + e.getMessage());
+                    runMetrics.outputFailed();
+                    e.printStackTrace();
+                }
             }
+            runMetrics.report(config);
         }
     }
 
@@ -90,179 +163,579 @@ public class generalHandler {
         return properties;
     }
 
-    private static Map<String, String> getFieldNumberToNameMapping(String schemaMdbPath) {
-        Map<String, String> fieldNumberToName = new HashMap<>();
-        String url = "jdbc:ucanaccess://" + schemaMdbPath;
-        
-        try (Connection conn = DriverManager.getConnection(url);
-             Statement stmt = conn.createStatement()) {
-            
-            String query = "SELECT FieldNo, FieldName FROM tblFields";
-            ResultSet rs = stmt.executeQuery(query);
-            
-            while (rs.next()) {
-                String fieldNo = rs.getString("FieldNo").replace(".0", "").trim();
-                String fieldName = rs.getString("FieldName");
-                fieldNumberToName.put(fieldNo, fieldName);
+    // Keeps tblFields order so the CSV header is stable between runs
+    static Map<String, String> getFieldNumberToNameMapping(String schemaMdbPath, String schemaCachePath) {
+        Map<String, String> fieldNumberToName = new LinkedHashMap<>();
+
+        try {
+            for (String[] field : schemaCache.loadFields(schemaMdbPath, schemaCachePath)) {
+                fieldNumberToName.put(field[0], field[1]);
             }
         } catch (Exception e) {
             System.err.println("Error in field mapping: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
         return fieldNumberToName;
     }
 
-    private static Map<String, String> extractFieldValuesFromXml(File qcaFile, Map<String, String> fieldNumberToName) {
-        Map<String, String> fieldValues = new HashMap<>();
+    private static Map<String, String> extractFieldValuesFromXml(qcaParser parser, File qcaFile, fieldLookupIndex fieldIndex) {
+        return qcaExtractor.extractFieldValues(parser, qcaFile, fieldIndex);
+    }
+
+    // .csv, or .csv.gz with Csv_compression=gzip (see csvRecordWriter)
+    static String csvExtension(Properties config) {
+        String compression = config.getProperty("Csv_compression", "none").toLowerCase().trim();
+        if (!compression.equals("none") && !compression.equals("gzip")) {
+            throw new IllegalArgumentException("Csv_compression must be none or gzip, not '" + compression + "'");
+        }
+        return compression.equals("gzip") ? ".csv.gz" : ".csv";
+    }
+
+    static String sanitizeFieldName(String fieldName) {
+        return fieldName.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    public static void writeToMDB(List<Map<String, String>> records, String outputMdbPath) {
+        writeToMDB(records, null, outputMdbPath, 500, 5000, "ucanaccess", null);
+    }
+
+    // With a manifest that has earlier commits, rows are appended to the existing dataBase table;
+    // sources then gives the input file of each record
+    public static void writeToMDB(List<Map<String, String>> records, List<File> sources, String outputMdbPath,
+            int batchSize, int commitInterval, String outputEngine, runManifest manifest) {
+        try (recordStore store = recordStore.of(records)) {
+            writeToMDB(store, sources, outputMdbPath, batchSize, commitInterval, outputEngine, manifest, true);
+        } catch (IOException e) {
+            System.err.println("Error writing to MDB: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+        }
+    }
 
+    // With inferTypes the columns are typed from the records (see columnType), otherwise all TEXT(255)
+    static void writeToMDB(recordStore records, List<File> sources, String outputMdbPath,
+            int batchSize, int commitInterval, String outputEngine, runManifest manifest, boolean inferTypes) {
+        if (records.size() == 0) return;
+
+        outputMdbPath = outputMdbPath.replace('/', File.separatorChar);
+
+        // One column per field name, case-insensitively
+        Map<String, String> fieldMapping = new LinkedHashMap<>();
+        for (String field : records.fieldNames()) {
+            String normalizedField = field.toUpperCase();
+            if (!fieldMapping.containsKey(normalizedField)) {
+                fieldMapping.put(normalizedField, field);
+            }
+        }
+
+        // Column order and sanitized names are fixed once for the whole load
+        List<String> fieldNames = new ArrayList<>(fieldMapping.values());
+        String[] columnNames = new String[fieldNames.size()];
+        int[] ordinals = new int[fieldNames.size()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = sanitizeFieldName(fieldNames.get(i));
+            ordinals[i] = records.fieldOrdinal(fieldNames.get(i));
+        }
+        // Every value is known before the table is created, so every one converts to its column's type
+        columnType[] types = null;
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(qcaFile);
-            doc.getDocumentElement().normalize();
-
-            NodeList records = doc.getElementsByTagName("record");
-            System.out.println("Found " + records.getLength() + " records");
-
-            for (int i = 0; i < records.getLength(); i++) {
-                Element record = (Element) records.item(i);
-                NodeList subRecords = record.getElementsByTagName("sub-record");
-                
-                for (int j = 0; j < subRecords.getLength(); j++) {
-                    Element subRecord = (Element) subRecords.item(j);
-                    NodeList fields = subRecord.getElementsByTagName("field");
-                    
-                    // Get document type
-                    String documentType = "";
-                    for (int k = 0; k < fields.getLength(); k++) {
-                        Element field = (Element) fields.item(k);
-                        if ("1".equals(field.getAttribute("no"))) {
-                            documentType = field.getElementsByTagName("value").item(0).getTextContent();
-                            break;
-                        }
+            if (inferTypes) {
+                types = columnType.infer(records, ordinals);
+            }
+            // An append converts to the types earlier runs gave the table's columns. A value one of them
+            // cannot hold stops it before any row is written, rather than being stored as NULL or altered.
+            if (appends(outputMdbPath, manifest)) {
+                Map<String, columnType> existingTypes = columnType.existing(outputMdbPath, "dataBase");
+                columnType[] appendTypes = new columnType[columnNames.length];
+                // Without inference only the typed columns are checked; text is as before
+                columnType[] checked = new columnType[columnNames.length];
+                boolean typedColumns = false;
+                for (int i = 0; i < columnNames.length; i++) {
+                    columnType existing = existingTypes.get(columnNames[i].toUpperCase());
+                    appendTypes[i] = existing != null ? existing : types != null ? types[i] : columnType.TEXT;
+                    checked[i] = types != null || (existing != null && !existing.isText()) ? appendTypes[i] : null;
+                    typedColumns |= existing != null && !existing.isText();
+                }
+                if (types != null || typedColumns) {
+                    types = appendTypes;
+                    columnType.misfit misfit = columnType.firstMisfit(records, ordinals, checked);
+                    if (misfit != null) {
+                        System.err.println("Error writing to MDB: " + sources.get(misfit.record).getName() + " has '"
+                                + misfit.value + "' for column " + columnNames[misfit.column] + ", which an earlier run made "
+                                + types[misfit.column] + "; nothing was appended to " + outputMdbPath);
+                        runMetrics.outputFailed();
+                        return;
                     }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error determining column types: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+            return;
+        }
 
-                    // Process all fields regardless of document type
-                    for (int k = 0; k < fields.getLength(); k++) {
-                        Element field = (Element) fields.item(k);
-                        String fieldNo = field.getAttribute("no");
-                        String value = field.getElementsByTagName("value").item(0).getTextContent();
-                        
-                        if (value.equals("$") || value.trim().isEmpty()) {
-                            continue;
+        try (rowWriter writer = openDataBaseWriter(outputMdbPath, columnNames, types, batchSize, commitInterval,
+                outputEngine, manifest)) {
+            try {
+                if (manifest != null) {
+                    resumeFromManifest(writer, manifest);
+                    dropPreviousRows(writer, manifest, sources);
+                }
+                recordStore.cursor record = records.cursor();
+                for (int r = 0; record.next(); r++) {
+                    if (!record.isEmpty()) {
+                        long start = System.nanoTime();
+                        Object[] row = new Object[columnNames.length];
+                        for (int i = 0; i < row.length; i++) {
+                            String value = record.get(ordinals[i]);
+                            row[i] = types == null ? value : types[i].convert(value);
                         }
+                        long insertStart = System.nanoTime();
+                        runMetrics.ROW_BUILD.recordNanos(insertStart - start);
+                        writer.add(row);
+                        runMetrics.INSERT.record(insertStart);
+                    }
+                    if (manifest != null) {
+                        manifest.stage(sources.get(r), record.isEmpty() ? 0 : 1);
+                        writer.checkpoint();
+                    }
+                }
+                writer.flush();
+            } catch (Throwable e) {
+                // Closing must not commit the rows of a file the load stopped in
+                writer.abort();
+                throw e;
+            }
+            System.out.println(writer.summary());
+        } catch (Exception e) {
+            System.err.println("Error writing to MDB: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+        }
+    }
 
-                        // Try both with and without document type
-                        String fieldName = fieldNumberToName.get(fieldNo + "-" + documentType);
-                        if (fieldName == null) {
-                            fieldName = fieldNumberToName.get(fieldNo);
-                        }
+    // Record and sub-record rows go straight from the parser to the table instead of being collected
+    // first, so the columns are every schema field rather than only those the records use
+    private static void streamToMDB(qcaPipeline pipeline, List<File> files, qcaParser parser, fieldLookupIndex fieldIndex,
+            String outputMdbPath, int batchSize, int commitInterval, String outputEngine, runManifest manifest,
+            String granularity, int rowBuffer) {
+        String[] fieldNames = distinctFieldNames(fieldIndex);
+        String[] columnNames = new String[fieldNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = sanitizeFieldName(fieldNames[i]);
+        }
 
-                        if (fieldName != null) {
-                            fieldValues.put(fieldName, value);
+        try (rowWriter writer = openDataBaseWriter(outputMdbPath, columnNames, batchSize, commitInterval,
+                outputEngine, manifest)) {
+            try {
+                if (manifest != null) {
+                    resumeFromManifest(writer, manifest);
+                    dropPreviousRows(writer, manifest, files);
+                    // A file that fails rolls back to here at most, keeping the deletes
+                    writer.checkpoint();
+                }
+                long[] rows = new long[1];
+                runMetrics.expectFiles(files);
+                pipeline.stream(files, qcaFile -> {
+                    if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                    if (manifest != null) {
+                        try {
+                            manifest.prepare(qcaFile);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
                     }
-                }
+                    return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+                }, rowBuffer, (qcaFile, record) -> {
+                    if (record.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        long start = System.nanoTime();
+                        Object[] row = new Object[fieldNames.length];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = record.getOrDefault(fieldNames[i], "");
+                        }
+                        long insertStart = System.nanoTime();
+                        runMetrics.ROW_BUILD.recordNanos(insertStart - start);
+                        writer.add(row);
+                        runMetrics.INSERT.record(insertStart);
+                        rows[0]++;
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error writing " + qcaFile.getName() + ": " + e.getMessage(), e);
+                    }
+                }, (qcaFile, results) -> {
+                    if (manifest == null) {
+                        return;
+                    }
+                    try {
+                        manifest.stage(qcaFile, rows[0]);
+                        rows[0] = 0;
+                        writer.checkpoint();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error committing " + qcaFile.getName() + ": " + e.getMessage(), e);
+                    }
+                }, qcaFile -> {
+                    rows[0] = 0;
+                    if (manifest == null) {
+                        return;
+                    }
+                    // Unstaged, the file is loaded again by the next run, so its rows so far are taken back
+                    try {
+                        writer.rollback();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error rolling back " + qcaFile.getName() + ": " + e.getMessage(), e);
+                    }
+                });
+                writer.flush();
+            } catch (Throwable e) {
+                // The manifest then stays at the last file boundary that was committed
+                writer.abort();
+                throw e;
             }
+            System.out.println(writer.summary());
         } catch (Exception e) {
+            System.err.println("Error writing to MDB: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
-        return fieldValues;
     }
 
-    private static String sanitizeFieldName(String fieldName) {
-        return fieldName.replaceAll("[^a-zA-Z0-9_]", "_");
+    // Schema field names in order, dropping those that only differ in case (Access column names do not)
+    static String[] distinctFieldNames(fieldLookupIndex fieldIndex) {
+        Map<String, String> fieldMapping = new LinkedHashMap<>();
+        for (String field : fieldIndex.names()) {
+            fieldMapping.putIfAbsent(field.toUpperCase(), field);
+        }
+        return fieldMapping.values().toArray(new String[0]);
     }
 
-    public static void writeToMDB(List<Map<String, String>> records, String outputMdbPath) {
-        if (records.isEmpty()) return;
+    // Sharded output: <prefix>_db.mdb per dealer with Shard_key=prefix, otherwise <base>_<key>.mdb, with
+    // _2, _3, ... for the files a shard rolls over to. Every shard table has a column for each schema field.
+    private static void writeShards(Properties config, boolean csv, qcaPipeline pipeline, List<File> files,
+            qcaParser parser, fieldLookupIndex fieldIndex, String granularity, String outputPath, String baseName) {
+        int batchSize = Integer.parseInt(config.getProperty("Batch_size", "500").trim());
+        int commitInterval = Integer.parseInt(config.getProperty("Commit_interval", "5000").trim());
+        String outputEngine = config.getProperty("Output_engine", "ucanaccess").toLowerCase().trim();
+        boolean byPrefix = config.getProperty("Shard_key", "none").trim().equalsIgnoreCase("prefix");
+        String[] fieldNames = csv ? fieldIndex.names() : distinctFieldNames(fieldIndex);
+        String csvExtension = csv ? csvExtension(config) : null;
+        String[] columnNames = new String[fieldNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = sanitizeFieldName(fieldNames[i]);
+        }
+
+        try (shardRouter router = new shardRouter(config, fieldIndex, (key, sequence) -> {
+            String stem = (byPrefix ? key + "_db" : baseName + (key.isEmpty() ? "" : "_" + key))
+                    + (sequence > 1 ? "_" + sequence : "");
+            if (csv) {
+                Path file = Paths.get(outputPath, stem + csvExtension);
+                return shardRouter.forCsv(new csvRecordWriter(file.toString(), fieldNames), file);
+            }
+            Path file = Paths.get(outputPath, stem + ".mdb");
+            rowWriter writer = openDataBaseWriter(file.toString(), columnNames, batchSize, commitInterval,
+                    outputEngine, null);
+            return shardRouter.forRows(writer, file, record -> {
+                Object[] row = new Object[fieldNames.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = record.getOrDefault(fieldNames[i], "");
+                }
+                return row;
+            });
+        })) {
+            router.load(pipeline, files, qcaFile -> {
+                if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+            });
+        } catch (RuntimeException e) {
+            System.err.println("Error writing shards: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+        }
+    }
+
+    // Appends to the existing dataBase table when the manifest has earlier commits; otherwise
+    // replaces the file with a new table and starts the manifest over
+    static rowWriter openDataBaseWriter(String outputMdbPath, String[] columnNames, int batchSize,
+            int commitInterval, String outputEngine, runManifest manifest) throws Exception {
+        return openDataBaseWriter(outputMdbPath, columnNames, null, batchSize, commitInterval, outputEngine, manifest);
+    }
+
+    // As above with the column types of types (all TEXT(255) when null); when appending, the entries
+    // for columns the table already has are replaced with their existing types
+    static rowWriter openDataBaseWriter(String outputMdbPath, String[] columnNames, columnType[] types,
+            int batchSize, int commitInterval, String outputEngine, runManifest manifest) throws Exception {
+        if (appends(outputMdbPath, manifest)) {
+            return openDataBaseTable(outputMdbPath, columnNames, types, batchSize, commitInterval, outputEngine);
+        }
 
-        outputMdbPath = outputMdbPath.replace('/', '\\');
-        
         try {
             Files.deleteIfExists(Paths.get(outputMdbPath));
             System.out.println("Deleted existing database file (if any)");
         } catch (IOException e) {
             System.err.println("Warning: Could not delete existing file: " + e.getMessage());
         }
+        if (manifest != null) {
+            manifest.reset();
+        }
+        if (outputEngine.equals("jackcess")) {
+            return jackcessRowWriter.create(outputMdbPath, "dataBase", columnNames, types, batchSize, commitInterval);
+        }
+        if (types != null) {
+            // Typed tables are created through Jackcess, which can compress their text, then loaded by UCanAccess
+            jackcessRowWriter.create(outputMdbPath, "dataBase", columnNames, types, batchSize, commitInterval).close();
+            return openDataBaseTable(outputMdbPath, columnNames, types, batchSize, commitInterval, outputEngine);
+        }
+        return createDataBaseTable(outputMdbPath, columnNames, batchSize, commitInterval);
+    }
 
-        String url = "jdbc:ucanaccess://" + outputMdbPath + ";newdatabaseversion=V2000";
-        
-        try (Connection conn = DriverManager.getConnection(url)) {
-            Map<String, String> fieldMapping = new HashMap<>();
-            for (Map<String, String> record : records) {
-                for (String field : record.keySet()) {
-                    String normalizedField = field.toUpperCase();
-                    if (!fieldMapping.containsKey(normalizedField)) {
-                        fieldMapping.put(normalizedField, field);
+    // Drops rows committed after the manifest's last commit (an interrupted run), then records
+    // each further commit of the writer in the manifest
+    static void resumeFromManifest(rowWriter writer, runManifest manifest) throws Exception {
+        if (manifest.hasCommits()) {
+            // Access row ids are 32-bit autonumbers
+            writer.deleteRows(manifest.getLastRowId() + 1, Integer.MAX_VALUE);
+        }
+        manifest.begin(writer.getLastRowId());
+        // Commits then only happen at checkpoint(), after a file is staged, so each covers whole files
+        writer.setDeferCommits(true);
+        writer.addCommitListener(() -> {
+            try {
+                long lastRowId = writer.getLastRowId();
+                manifest.committed(lastRowId, lastRowId);
+            } catch (Exception e) {
+                throw new IllegalStateException("Error updating manifest: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Removes the rows an earlier run loaded from files that have changed since
+    static void dropPreviousRows(rowWriter writer, runManifest manifest, List<File> sources) throws Exception {
+        for (File source : new LinkedHashSet<>(sources)) {
+            runManifest.entry previous = manifest.previous(source);
+            if (previous != null && previous.getFirstRowId() > 0) {
+                writer.deleteRows(previous.getFirstRowId(), previous.getLastRowId());
+            } else if (previous != null) {
+                System.err.println("Warning: Earlier rows of changed file " + source.getName() + " could not be located and are kept");
+            }
+        }
+    }
+
+    // Whether openDataBaseWriter appends to the table of an earlier run rather than starting a new file
+    private static boolean appends(String outputMdbPath, runManifest manifest) {
+        return manifest != null && manifest.hasCommits() && Files.exists(Paths.get(outputMdbPath));
+    }
+
+    // Opens the existing dataBase table for appending, adding any columns it does not have yet
+    private static rowWriter openDataBaseTable(String outputMdbPath, String[] columnNames, columnType[] types,
+            int batchSize, int commitInterval, String outputEngine) throws Exception {
+        if (types != null) {
+            Map<String, columnType> existingTypes = columnType.existing(outputMdbPath, "dataBase");
+            for (int i = 0; i < columnNames.length; i++) {
+                types[i] = existingTypes.getOrDefault(columnNames[i].toUpperCase(), types[i]);
+            }
+        }
+        if (outputEngine.equals("jackcess")) {
+            return jackcessRowWriter.append(outputMdbPath, "dataBase", columnNames, types, batchSize, commitInterval);
+        }
+
+        Connection conn = DriverManager.getConnection("jdbc:ucanaccess://" + outputMdbPath);
+        try {
+            Set<String> existing = new HashSet<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM dataBase WHERE 1 = 0")) {
+                ResultSetMetaData meta = rs.getMetaData();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    existing.add(meta.getColumnName(i).toUpperCase());
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (int i = 0; i < columnNames.length; i++) {
+                    if (!existing.contains(columnNames[i].toUpperCase())) {
+                        stmt.executeUpdate("ALTER TABLE dataBase ADD COLUMN [" + columnNames[i] + "] "
+                                + (types == null ? "TEXT(255)" : types[i].ddl()));
                     }
                 }
             }
-            
+            batchInserter inserter = new batchInserter(conn, dataBaseInsertSQL(columnNames), sqlTypes(types, columnNames.length),
+                    batchSize, commitInterval, true);
+            inserter.trackRowIds("dataBase", "ID");
+            return inserter;
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    // Creates the dataBase table through UCanAccess and returns a batched writer that owns the connection
+    private static batchInserter createDataBaseTable(String outputMdbPath, String[] columnNames, int batchSize,
+            int commitInterval) throws SQLException {
+        String url = "jdbc:ucanaccess://" + outputMdbPath + ";newdatabaseversion=V2000";
+        Connection conn = DriverManager.getConnection(url);
+        try {
             StringBuilder createTableSQL = new StringBuilder();
             createTableSQL.append("CREATE TABLE dataBase (ID COUNTER PRIMARY KEY");
-            for (String originalField : fieldMapping.values()) {
-                String sanitizedField = sanitizeFieldName(originalField);
-                createTableSQL.append(", [").append(sanitizedField).append("] TEXT(255)");
+            for (String columnName : columnNames) {
+                createTableSQL.append(", [").append(columnName).append("] TEXT(255)");
             }
             createTableSQL.append(")");
-            
+
             try (Statement stmt = conn.createStatement()) {
                 stmt.executeUpdate(createTableSQL.toString());
-                
-                List<String> fieldNames = new ArrayList<>(fieldMapping.values());
-                int recordCount = 0;
-                
-                for (Map<String, String> record : records) {
-                    StringBuilder insertSQL = new StringBuilder();
-                    insertSQL.append("INSERT INTO dataBase (");
-                    insertSQL.append(String.join(", ", fieldNames.stream()
-                        .map(f -> "[" + sanitizeFieldName(f) + "]")
-                        .collect(Collectors.toList())));
-                    insertSQL.append(") VALUES (");
-                    insertSQL.append(String.join(", ", Collections.nCopies(fieldNames.size(), "?")));
-                    insertSQL.append(")");
-                    
-                    try (PreparedStatement pstmt = conn.prepareStatement(insertSQL.toString())) {
-                        int paramIndex = 1;
-                        for (String field : fieldNames) {
-                            pstmt.setString(paramIndex++, record.getOrDefault(field, ""));
-                        }
-                        pstmt.executeUpdate();
-                        recordCount++;
+            }
+
+            batchInserter inserter = new batchInserter(conn, dataBaseInsertSQL(columnNames), sqlTypes(null, columnNames.length),
+                    batchSize, commitInterval, true);
+            inserter.trackRowIds("dataBase", "ID");
+            return inserter;
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    private static String dataBaseInsertSQL(String[] columnNames) {
+        return "INSERT INTO dataBase ([" + String.join("], [", columnNames) + "]) VALUES ("
+                + String.join(", ", Collections.nCopies(columnNames.length, "?")) + ")";
+    }
+
+    private static int[] sqlTypes(columnType[] types, int count) {
+        int[] sqlTypes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sqlTypes[i] = types == null ? Types.VARCHAR : types[i].sqlType();
+        }
+        return sqlTypes;
+    }
+
+    // Writes each record as soon as its file is parsed; memory does not grow with the number of files.
+    // With a manifest, an existing CSV is cut back to its last commit and only pending files are appended.
+    private static void streamToCSV(qcaPipeline pipeline, List<File> qcaFiles, qcaParser parser,
+            fieldLookupIndex fieldIndex, String[] headers, String outputFile, int commitInterval, runManifest manifest,
+            String granularity, int rowBuffer) {
+        try (csvRecordWriter writer = openCSV(outputFile, headers, manifest)) {
+            if (manifest != null && manifest.hasCommits()) {
+                qcaFiles = manifest.selectPending(qcaFiles);
+                warnChangedCSVFiles(manifest, qcaFiles);
+            }
+            long firstLine = manifest != null ? manifest.getLastRowId() : 0;
+            long[] committedRows = new long[2];
+            boolean[] failedFile = new boolean[1];
+            runMetrics.expectFiles(qcaFiles);
+            pipeline.stream(qcaFiles, qcaFile -> {
+                if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                if (manifest != null) {
+                    try {
+                        manifest.prepare(qcaFile);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+            }, rowBuffer, (qcaFile, fieldValues) -> {
+                if (fieldValues.isEmpty()) {
+                    return;
+                }
+                try {
+                    long start = System.nanoTime();
+                    writer.write(fieldValues);
+                    runMetrics.INSERT.record(start);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, (qcaFile, results) -> {
+                if (manifest == null || failedFile[0]) {
+                    return;
+                }
+                try {
+                    // committedRows holds the rows at the last file boundary and at the last commit
+                    manifest.stage(qcaFile, writer.getRows() - committedRows[0]);
+                    committedRows[0] = writer.getRows();
+                    // Data line numbers serve as the CSV's row ids; commits fall on file boundaries
+                    if (writer.getRows() - committedRows[1] >= commitInterval) {
+                        manifest.committed(writer.flush(), firstLine + writer.getRows());
+                        committedRows[1] = writer.getRows();
                     }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                System.out.println("Inserted " + recordCount + " records into database");
+            }, qcaFile -> {
+                // Rows already written cannot be taken out of the CSV, so nothing is committed after them;
+                // the next run cuts the file back to the last commit and loads the rest again
+                committedRows[0] = writer.getRows();
+                failedFile[0] = true;
+            });
+            long length = writer.flush();
+            if (manifest != null && !failedFile[0]) {
+                manifest.committed(length, firstLine + writer.getRows());
             }
-        } catch (SQLException e) {
-            System.err.println("Error writing to MDB: " + e.getMessage());
+            System.out.println("CSV file created at: " + outputFile + " (" + writer.getRows() + " records)");
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error writing CSV: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
     }
 
+    // Opens the CSV for appending after its last commit when the manifest has one (and the header
+    // still matches); otherwise starts the file and the manifest over
+    static csvRecordWriter openCSV(String outputFile, String[] headers, runManifest manifest) throws IOException {
+        if (manifest != null && manifest.hasCommits() && csvRecordWriter.hasHeader(outputFile, headers)) {
+            try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.WRITE)) {
+                if (channel.size() > manifest.getMark()) {
+                    channel.truncate(manifest.getMark());
+                }
+            }
+            return new csvRecordWriter(outputFile, headers, true);
+        }
+        if (manifest != null) {
+            manifest.reset();
+        }
+        return new csvRecordWriter(outputFile, headers, false);
+    }
+
+    static void warnChangedCSVFiles(runManifest manifest, List<File> qcaFiles) {
+        for (File qcaFile : qcaFiles) {
+            if (manifest.previous(qcaFile) != null) {
+                System.err.println("Warning: " + qcaFile.getName() + " changed; its earlier CSV rows are kept");
+            }
+        }
+    }
+
     public static void writeToCSV(List<Map<String, String>> records, String outputFile) {
-        if (records.isEmpty()) return;
-        
-        try (FileWriter writer = new FileWriter(outputFile)) {
-            Set<String> headers = new HashSet<>();
-            records.forEach(record -> headers.addAll(record.keySet()));
-            writer.write(String.join(",", headers) + "\n");
-
-            for (Map<String, String> record : records) {
-                List<String> values = new ArrayList<>();
-                for (String header : headers) {
-                    String value = record.getOrDefault(header, "");
-                    value = value.replace("\"", "\"\"");
-                    if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
-                        value = "\"" + value + "\"";
-                    }
-                    values.add(value);
+        try (recordStore store = recordStore.of(records)) {
+            writeToCSV(store, outputFile);
+        } catch (IOException e) {
+            System.err.println("Error writing CSV: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+        }
+    }
+
+    // Columns are the fields the records have, in the order they first appear
+    static void writeToCSV(recordStore records, String outputFile) {
+        if (records.size() == 0) return;
+
+        String[] headers = records.fieldNames();
+        int[] ordinals = new int[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            ordinals[i] = records.fieldOrdinal(headers[i]);
+        }
+
+        try (csvRecordWriter writer = new csvRecordWriter(outputFile, headers)) {
+            String[] values = new String[headers.length];
+            recordStore.cursor record = records.cursor();
+            while (record.next()) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = record.get(ordinals[i]);
                 }
-                writer.write(String.join(",", values) + "\n");
+                writer.write(values);
             }
             System.out.println("CSV file created at: " + outputFile);
         } catch (IOException e) {
             System.err.println("Error writing CSV: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
     }
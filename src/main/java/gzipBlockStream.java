@@ -0,0 +1,202 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A gzip stream of independently compressed members, one per BLOCK_SIZE bytes written (and one at
+// each flush), compressed in parallel and written in order. gunzip, GZIPInputStream and other gzip
+// readers read the members back as one stream. After flush() the file is a complete gzip file, so
+// it can be cut back to that length or appended to with further members.
+public class gzipBlockStream extends OutputStream {
+    static final int BLOCK_SIZE = 1 << 20;
+    // No name, time or extra fields; OS unknown
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int TRAILER = 8;
+
+    private final OutputStream out;
+    private final ExecutorService compressors;
+    private final int maxInFlight;
+    // Compressed members in write order
+    private final Deque<Future<ByteArrayOutputStream>> inFlight = new ArrayDeque<>();
+    // Blocks and deflaters not in use, shared with the compressors; guarded by themselves
+    private final Deque<byte[]> freeBlocks = new ArrayDeque<>();
+    private final Deque<Deflater> deflaters = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+    private boolean closed;
+
+    public gzipBlockStream(OutputStream out, int threads) {
+        this.out = out;
+        this.compressors = Executors.newFixedThreadPool(Math.max(1, threads), qcaPipeline.namedThreads("csv-gzip"));
+        // Enough to keep every compressor busy while the oldest member is written
+        this.maxInFlight = Math.max(1, threads) * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == block.length) {
+            submit();
+        }
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == block.length) {
+                submit();
+            }
+            int n = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Hands the current block to a compressor and writes the members that are done, waiting for the
+    // oldest when too many are in flight
+    private void submit() throws IOException {
+        if (length == 0) {
+            return;
+        }
+        byte[] full = block;
+        int size = length;
+        inFlight.add(compressors.submit(() -> compress(full, size)));
+        synchronized (freeBlocks) {
+            block = freeBlocks.isEmpty() ? new byte[BLOCK_SIZE] : freeBlocks.poll();
+        }
+        length = 0;
+        while (inFlight.size() > maxInFlight || (!inFlight.isEmpty() && inFlight.peekFirst().isDone())) {
+            writeNext();
+        }
+    }
+
+    private ByteArrayOutputStream compress(byte[] data, int size) {
+        Deflater deflater;
+        synchronized (deflaters) {
+            deflater = deflaters.isEmpty() ? new Deflater(Deflater.BEST_SPEED, true) : deflaters.poll();
+        }
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, size);
+            ByteArrayOutputStream member = new ByteArrayOutputStream(size / 3 + 64);
+            member.write(HEADER, 0, HEADER.length);
+            deflater.setInput(data, 0, size);
+            deflater.finish();
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                member.write(chunk, 0, deflater.deflate(chunk));
+            }
+            writeIntLE(member, (int) crc.getValue());
+            writeIntLE(member, size);
+            return member;
+        } finally {
+            deflater.reset();
+            synchronized (deflaters) {
+                deflaters.add(deflater);
+            }
+            synchronized (freeBlocks) {
+                freeBlocks.add(data);
+            }
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private void writeNext() throws IOException {
+        Future<ByteArrayOutputStream> next = inFlight.removeFirst();
+        try {
+            next.get().writeTo(out);
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing CSV block: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing CSV blocks");
+        }
+    }
+
+    // Ends the current member and writes every member to the underlying stream
+    @Override
+    public void flush() throws IOException {
+        submit();
+        while (!inFlight.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            compressors.shutdownNow();
+            synchronized (deflaters) {
+                for (Deflater deflater : deflaters) {
+                    deflater.end();
+                }
+                deflaters.clear();
+            }
+            out.close();
+        }
+    }
+
+    // Bytes taken by the first member of a file written by this class
+    static long firstMemberLength(Path file) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = new byte[HEADER.length];
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) {
+                    throw new IOException(file + " is not a gzip file");
+                }
+                read += n;
+            }
+            if (header[0] != HEADER[0] || header[1] != HEADER[1] || header[3] != 0) {
+                throw new IOException(file + " does not start with a plain gzip member");
+            }
+            byte[] chunk = new byte[8 * 1024];
+            byte[] skipped = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int n = in.read(chunk);
+                    if (n < 0) {
+                        throw new IOException(file + " ends inside its first gzip member");
+                    }
+                    inflater.setInput(chunk, 0, n);
+                }
+                inflater.inflate(skipped);
+            }
+            return HEADER.length + inflater.getBytesRead() + TRAILER;
+        } catch (DataFormatException e) {
+            throw new IOException("Error reading " + file + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongConsumer;
+
+// The input files of a run, discovered in the background and handed out as they are found, so the
+// pipeline starts on the first file while the rest of Input_path is still being listed.
+//
+//   Input_recursive=false          also walk subfolders (e.g. one per date) of Input_path
+//   Input_modified_after=          only files modified at or after this time (2024-09-02 or 2024-09-02T13:00)
+//   Input_modified_before=         only files modified before this time
+//   Scan_threads=4                 directories listed at once
+//   Input_list=                    a file naming the input files, one per line, instead (coordinator workers)
+//
+// The order is fixed for a given tree: a directory's files in listing order (as File.listFiles
+// returns them), then its subfolders by name, each with everything below it. Subfolders are listed
+// in parallel up to a few directories ahead of the one being handed out. Reading the list blocks
+// until the files asked for are found: get(i) until file i is, size() until the scan is done.
+public class inputFiles extends AbstractList<File> {
+    private static final int BATCH = 64;
+
+    private final String extension;
+    private final boolean recursive;
+    private final long modifiedAfter;
+    private final long modifiedBefore;
+    private final int lookahead;
+    private final ExecutorService listers;
+
+    // Files found so far, in order; guarded by this
+    private final List<File> found = new ArrayList<>();
+    private boolean complete;
+    private LongConsumer counter;
+
+    private inputFiles(String extension, boolean recursive, long modifiedAfter, long modifiedBefore, int threads) {
+        this.extension = "." + extension;
+        this.recursive = recursive;
+        this.modifiedAfter = modifiedAfter;
+        this.modifiedBefore = modifiedBefore;
+        this.lookahead = threads * 4;
+        this.listers = Executors.newFixedThreadPool(threads, qcaPipeline.namedThreads("qca-scan"));
+    }
+
+    // Starts the scan of Input_path for input_ext files; with announce set, prints how many were found
+    public static inputFiles scan(Properties config, boolean announce) {
+        inputFiles files = new inputFiles(config.getProperty("input_ext", "QCA").trim(),
+                Boolean.parseBoolean(config.getProperty("Input_recursive", "false").trim()),
+                time(config, "Input_modified_after", Long.MIN_VALUE),
+                time(config, "Input_modified_before", Long.MAX_VALUE),
+                Math.max(1, Integer.parseInt(config.getProperty("Scan_threads", "4").trim())));
+        String list = config.getProperty("Input_list", "").trim();
+        Path root = Paths.get(list.isEmpty() ? config.getProperty("Input_path") : list);
+        Thread collector = new Thread(() -> {
+            if (list.isEmpty()) {
+                files.collect(root, announce);
+            } else {
+                files.read(root, announce);
+            }
+        }, "qca-scan");
+        collector.setDaemon(true);
+        collector.start();
+        return files;
+    }
+
+    private static long time(Properties config, String key, long unset) {
+        String value = config.getProperty(key, "").trim();
+        if (value.isEmpty()) {
+            return unset;
+        }
+        try {
+            LocalDateTime time = value.contains("T") ? LocalDateTime.parse(value) : LocalDate.parse(value).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(key + " '" + value + "' is not a date (2024-09-02) or time (2024-09-02T13:00)");
+        }
+    }
+
+    // Hands out the directories' files in order, keeping up to lookahead directories being listed
+    private void collect(Path root, boolean announce) {
+        long start = System.nanoTime();
+        Deque<directory> pending = new ArrayDeque<>();
+        pending.add(new directory(root));
+        int directories = 1;
+        try {
+            schedule(pending);
+            while (!pending.isEmpty()) {
+                directory next = pending.peekFirst();
+                Object item = next.channel.take();
+                if (item instanceof listed) {
+                    pending.removeFirst();
+                    List<Path> subfolders = ((listed) item).subfolders;
+                    for (int i = subfolders.size() - 1; i >= 0; i--) {
+                        pending.addFirst(new directory(subfolders.get(i)));
+                    }
+                    directories += subfolders.size();
+                    schedule(pending);
+                } else if (item instanceof IOException) {
+                    System.err.println("Error scanning " + next.path + ": " + ((IOException) item).getMessage());
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<File> batch = (List<File>) item;
+                    add(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            listers.shutdownNow();
+            synchronized (this) {
+                complete = true;
+                notifyAll();
+            }
+            runMetrics.SCAN.record(start);
+        }
+        if (announce) {
+            System.out.println("Found " + found.size() + " " + extension.substring(1) + " files"
+                    + (recursive ? " in " + directories + " folders" : ""));
+        }
+    }
+
+    private void read(Path list, boolean announce) {
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(list, StandardCharsets.UTF_8)) {
+            List<File> batch = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    batch.add(new File(line.trim()));
+                }
+                if (batch.size() == BATCH) {
+                    add(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            add(batch);
+        } catch (IOException e) {
+            System.err.println("Error reading input list " + list + ": " + e.getMessage());
+        } finally {
+            listers.shutdownNow();
+            synchronized (this) {
+                complete = true;
+                notifyAll();
+            }
+            runMetrics.SCAN.record(start);
+        }
+        if (announce) {
+            System.out.println("Found " + found.size() + " files in " + list);
+        }
+    }
+
+    private synchronized void add(List<File> batch) {
+        found.addAll(batch);
+        if (counter != null) {
+            counter.accept(batch.size());
+        }
+        notifyAll();
+    }
+
+    private void schedule(Deque<directory> pending) {
+        int ahead = 0;
+        for (directory next : pending) {
+            if (ahead++ == lookahead) {
+                break;
+            }
+            if (!next.started) {
+                next.started = true;
+                listers.execute(() -> list(next));
+            }
+        }
+    }
+
+    // Sends the directory's matching files in batches, then its subfolders; never blocks, so a
+    // lister cannot hold up a directory ahead of it. An entry that cannot be read (e.g. deleted since
+    // it was listed) is reported and skipped, and the subfolders are sent whatever happens, since
+    // collect() waits for them.
+    private void list(directory target) {
+        List<Path> subfolders = new ArrayList<>();
+        List<File> batch = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(target.path)) {
+            for (Path entry : entries) {
+                try {
+                    String name = entry.getFileName().toString();
+                    if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+                        if (inWindow(entry)) {
+                            batch.add(entry.toFile());
+                            if (batch.size() == BATCH) {
+                                target.channel.add(batch);
+                                batch = new ArrayList<>();
+                            }
+                        }
+                    } else if (recursive && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        subfolders.add(entry);
+                    }
+                } catch (IOException e) {
+                    target.channel.add(e);
+                } catch (RuntimeException e) {
+                    target.channel.add(new IOException(entry + ": " + e, e));
+                }
+            }
+        } catch (IOException e) {
+            target.channel.add(e);
+        } catch (DirectoryIteratorException e) {
+            target.channel.add(e.getCause());
+        } catch (RuntimeException e) {
+            target.channel.add(new IOException(e.toString(), e));
+        } finally {
+            if (!batch.isEmpty()) {
+                target.channel.add(batch);
+            }
+            Collections.sort(subfolders);
+            target.channel.add(new listed(subfolders));
+        }
+    }
+
+    private boolean inWindow(Path file) throws IOException {
+        if (modifiedAfter == Long.MIN_VALUE && modifiedBefore == Long.MAX_VALUE) {
+            return true;
+        }
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        return modified >= modifiedAfter && modified < modifiedBefore;
+    }
+
+    // Reports the files found so far to counter, then each one as it is found (progress totals)
+    public synchronized void onFound(LongConsumer counter) {
+        counter.accept(found.size());
+        this.counter = counter;
+    }
+
+    // Waits until more than index files are found or the scan is done
+    private synchronized boolean await(int index) {
+        try {
+            while (found.size() <= index && !complete) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning input files", e);
+        }
+        return found.size() > index;
+    }
+
+    @Override
+    public File get(int index) {
+        if (!await(index)) {
+            throw new IndexOutOfBoundsException("Index " + index + ", " + found.size() + " files");
+        }
+        synchronized (this) {
+            return found.get(index);
+        }
+    }
+
+    @Override
+    public int size() {
+        await(Integer.MAX_VALUE);
+        synchronized (this) {
+            return found.size();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !await(0);
+    }
+
+    @Override
+    public Iterator<File> iterator() {
+        return new Iterator<File>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return await(next);
+            }
+
+            @Override
+            public File next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private static final class directory {
+        final Path path;
+        // Batches of files, then an IOException if listing failed, then the listed marker
+        final BlockingQueue<Object> channel = new LinkedBlockingQueue<>();
+        boolean started;
+
+        directory(Path path) {
+            this.path = path;
+        }
+    }
+
+    private static final class listed {
+        final List<Path> subfolders;
+
+        listed(List<Path> subfolders) {
+            this.subfolders = subfolders;
+        }
+    }
+}
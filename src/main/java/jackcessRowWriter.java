@@ -0,0 +1,448 @@
+import com.healthmarketscience.jackcess.BatchUpdateException;
+import com.healthmarketscience.jackcess.Column;
+import com.healthmarketscience.jackcess.ColumnBuilder;
+import com.healthmarketscience.jackcess.ConstraintViolationException;
+import com.healthmarketscience.jackcess.Cursor;
+import com.healthmarketscience.jackcess.CursorBuilder;
+import com.healthmarketscience.jackcess.DataType;
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.Index;
+import com.healthmarketscience.jackcess.InvalidValueException;
+import com.healthmarketscience.jackcess.Row;
+import com.healthmarketscience.jackcess.Table;
+import com.healthmarketscience.jackcess.TableBuilder;
+import com.healthmarketscience.jackcess.util.CaseInsensitiveColumnMatcher;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Appends rows straight through Jackcess Table.addRows, skipping the UCanAccess/HSQLDB mirror
+public class jackcessRowWriter implements rowWriter {
+    private final Database db;
+    private final Table table;
+    private final int[] columnPositions;
+    private final String[] columnNames;
+    private final int chunkSize;
+    private final int commitInterval;
+    private final int rowIdPosition;
+    private final List<Object[]> chunk = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+
+    private long inserted;
+    private long failed;
+    private long sinceFlush;
+    private long lastRowId = -1;
+    private boolean lastRowIdKnown;
+    // Rows at the head of chunk added before the last checkpoint(), and the row id of the first row
+    // written since then (-1 for none)
+    private int checkpointChunk;
+    private long checkpointFirstId = -1;
+    private final List<Runnable> commitListeners = new ArrayList<>();
+    private final List<Consumer<Object[]>> rejectListeners = new ArrayList<>();
+    private boolean deferCommits;
+    private boolean aborted;
+
+    // columnNames gives the table column for each position of the rows passed to add()
+    public jackcessRowWriter(Database db, String tableName, String[] columnNames, int chunkSize, int commitInterval)
+            throws IOException {
+        this.db = db;
+        this.table = db.getTable(tableName);
+        if (table == null) {
+            throw new IOException("Table " + tableName + " not found in " + db.getFile());
+        }
+        this.columnPositions = new int[columnNames.length];
+        this.columnNames = new String[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            Column column = table.getColumn(columnNames[i]);
+            columnPositions[i] = column.getColumnIndex();
+            this.columnNames[i] = column.getName();
+        }
+        this.chunkSize = Math.max(1, chunkSize);
+        this.commitInterval = Math.max(this.chunkSize, commitInterval);
+
+        // The autonumber column, if any, serves as the row id
+        int autoNumber = -1;
+        for (Column column : table.getColumns()) {
+            if (column.isAutoNumber() && column.getType() == DataType.LONG) {
+                autoNumber = column.getColumnIndex();
+                break;
+            }
+        }
+        this.rowIdPosition = autoNumber;
+    }
+
+    // Appends to an existing table, e.g. Liaison in a copy of the template MDB
+    public static jackcessRowWriter open(String mdbPath, String tableName, String[] columnNames, int chunkSize,
+            int commitInterval) throws IOException {
+        Database db = new DatabaseBuilder(new File(mdbPath)).setAutoSync(false).open();
+        try {
+            return new jackcessRowWriter(db, tableName, columnNames, chunkSize, commitInterval);
+        } catch (IOException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    // Like open(), but first adds any of columnNames the table lacks as TEXT(255) columns
+    public static jackcessRowWriter append(String mdbPath, String tableName, String[] columnNames, int chunkSize,
+            int commitInterval) throws IOException {
+        return append(mdbPath, tableName, columnNames, null, chunkSize, commitInterval);
+    }
+
+    // As above, adding the missing columns with the given types (all TEXT(255) when types is null)
+    public static jackcessRowWriter append(String mdbPath, String tableName, String[] columnNames, columnType[] types,
+            int chunkSize, int commitInterval) throws IOException {
+        Database db = new DatabaseBuilder(new File(mdbPath)).setAutoSync(false).open();
+        try {
+            Table table = db.getTable(tableName);
+            if (table != null) {
+                for (int i = 0; i < columnNames.length; i++) {
+                    if (!hasColumn(table, columnNames[i])) {
+                        column(columnNames[i], types == null ? null : types[i]).addToTable(table);
+                    }
+                }
+            }
+            return new jackcessRowWriter(db, tableName, columnNames, chunkSize, commitInterval);
+        } catch (IOException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    private static boolean hasColumn(Table table, String columnName) {
+        for (Column column : table.getColumns()) {
+            if (column.getName().equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A new column of the given type, or TEXT(255) as every column was before Column_types
+    private static ColumnBuilder column(String columnName, columnType type) {
+        return type == null ? new ColumnBuilder(columnName, DataType.TEXT).setLengthInUnits(255)
+                : type.column(columnName);
+    }
+
+    // Creates a new Access 2000 file holding one table with an ID autonumber key and TEXT(255) columns,
+    // the same layout writeToMDB creates through UCanAccess
+    public static jackcessRowWriter create(String mdbPath, String tableName, String[] columnNames, int chunkSize,
+            int commitInterval) throws IOException {
+        return create(mdbPath, tableName, columnNames, null, chunkSize, commitInterval);
+    }
+
+    // As above with the given column types (all TEXT(255) when types is null)
+    public static jackcessRowWriter create(String mdbPath, String tableName, String[] columnNames, columnType[] types,
+            int chunkSize, int commitInterval) throws IOException {
+        Database db = new DatabaseBuilder(new File(mdbPath)).setFileFormat(Database.FileFormat.V2000)
+                .setAutoSync(false).create();
+        try {
+            TableBuilder builder = new TableBuilder(tableName)
+                    .addColumn(new ColumnBuilder("ID", DataType.LONG).setAutoNumber(true))
+                    .setPrimaryKey("ID");
+            for (int i = 0; i < columnNames.length; i++) {
+                builder.addColumn(column(columnNames[i], types == null ? null : types[i]));
+            }
+            builder.toTable(db);
+            return new jackcessRowWriter(db, tableName, columnNames, chunkSize, commitInterval);
+        } catch (IOException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void add(Object[] row) throws IOException {
+        Object[] tableRow = new Object[table.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            tableRow[columnPositions[i]] = row[i];
+        }
+        chunk.add(tableRow);
+        if (chunk.size() >= chunkSize) {
+            writeChunk();
+            if (!deferCommits && sinceFlush >= commitInterval) {
+                flush();
+            }
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        List<Object[]> rows = chunk;
+        int from = 0;
+        while (from < rows.size()) {
+            try {
+                List<? extends Object[]> added = table.addRows(rows.subList(from, rows.size()));
+                written(rows, from, added.size());
+                inserted += added.size();
+                sinceFlush += added.size();
+                runMetrics.rowsWritten(added.size());
+                if (rowIdPosition >= 0 && lastRowIdKnown && !added.isEmpty()) {
+                    Object[] last = added.get(added.size() - 1);
+                    Object id = last[rowIdPosition];
+                    lastRowId = Math.max(lastRowId, ((Number) id).longValue());
+                }
+                break;
+            } catch (IOException e) {
+                // A failure to write (disk full, locked file) ends the load; only a bad value skips its row.
+                // Part of the chunk may be written already, so it is not written again, and close() no
+                // longer flushes.
+                if (!isRowFailure(e)) {
+                    abort();
+                    throw e;
+                }
+                // Rows before the failing one are already written; skip it and carry on
+                int written = ((BatchUpdateException) e).getUpdateCount();
+                written(rows, from, written);
+                inserted += written;
+                sinceFlush += written;
+                runMetrics.rowsWritten(written);
+                lastRowIdKnown = false;
+                reject(rows.get(from + written));
+                from += written + 1;
+                failed++;
+                runMetrics.rowFailed();
+                System.err.println("Error inserting record: " + e.getMessage());
+            }
+        }
+        chunk.clear();
+        checkpointChunk = 0;
+    }
+
+    // Notes the row id of the first row written since the checkpoint; addRows puts the autonumber
+    // values into the rows it was given
+    private void written(List<Object[]> rows, int from, int count) {
+        int first = Math.max(from, checkpointChunk);
+        if (rowIdPosition >= 0 && checkpointFirstId < 0 && first < from + count) {
+            checkpointFirstId = ((Number) rows.get(first)[rowIdPosition]).longValue();
+        }
+    }
+
+    // Tells the reject listeners about a table row, in add()'s column order
+    private void reject(Object[] tableRow) {
+        if (rejectListeners.isEmpty()) {
+            return;
+        }
+        for (Consumer<Object[]> listener : rejectListeners) {
+            listener.accept(addOrder(tableRow));
+        }
+    }
+
+    private Object[] addOrder(Object[] tableRow) {
+        Object[] row = new Object[columnPositions.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = tableRow[columnPositions[i]];
+        }
+        return row;
+    }
+
+    // A row Jackcess refused for its values, as opposed to an I/O failure while writing it
+    private static boolean isRowFailure(IOException e) {
+        Throwable cause = e instanceof BatchUpdateException ? e.getCause() : null;
+        return cause instanceof InvalidValueException || cause instanceof ConstraintViolationException
+                || cause instanceof IllegalArgumentException || cause instanceof ClassCastException;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        long start = System.nanoTime();
+        db.flush();
+        runMetrics.COMMIT.record(start);
+        sinceFlush = 0;
+        for (Runnable listener : commitListeners) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public long getLastRowId() throws IOException {
+        if (rowIdPosition < 0) {
+            return -1;
+        }
+        if (!lastRowIdKnown) {
+            String idColumn = table.getColumns().get(rowIdPosition).getName();
+            long max = 0;
+            for (Row row : table) {
+                max = Math.max(max, ((Number) row.get(idColumn)).longValue());
+            }
+            lastRowId = max;
+            lastRowIdKnown = true;
+        }
+        return lastRowId;
+    }
+
+    @Override
+    public void deleteRows(long firstRowId, long lastRowId) throws IOException {
+        if (rowIdPosition < 0) {
+            return;
+        }
+        writeChunk();
+        String idColumn = table.getColumns().get(rowIdPosition).getName();
+        Cursor cursor = CursorBuilder.createCursor(table);
+        while (cursor.moveToNextRow()) {
+            long id = ((Number) cursor.getCurrentRowValue(table.getColumn(idColumn))).longValue();
+            if (id >= firstRowId && id <= lastRowId) {
+                cursor.deleteCurrentRow();
+            }
+        }
+    }
+
+    @Override
+    public long update(Object[] row, int[] keyColumns) throws IOException {
+        writeChunk();
+        Map<String, Object> key = new HashMap<>();
+        for (int k : keyColumns) {
+            key.put(columnNames[k], row[k]);
+        }
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < row.length; i++) {
+            values.put(columnNames[i], row[i]);
+        }
+        // An index over key columns only finds the rows without a table scan
+        Cursor cursor = null;
+        for (Index index : table.getIndexes()) {
+            boolean usable = true;
+            for (Index.Column column : index.getColumns()) {
+                usable &= key.containsKey(column.getName());
+            }
+            if (usable) {
+                cursor = CursorBuilder.createCursor(index);
+                break;
+            }
+        }
+        if (cursor == null) {
+            cursor = CursorBuilder.createCursor(table);
+        }
+        cursor.setColumnMatcher(CaseInsensitiveColumnMatcher.INSTANCE);
+        long updated = 0;
+        while (cursor.findNextRow(key)) {
+            cursor.updateCurrentRowFromMap(values);
+            updated++;
+        }
+        return updated;
+    }
+
+    @Override
+    public List<Object[]> readRows(long firstRowId, long lastRowId) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        if (rowIdPosition < 0) {
+            return rows;
+        }
+        writeChunk();
+        String idColumn = table.getColumns().get(rowIdPosition).getName();
+        for (Row tableRow : table) {
+            long id = ((Number) tableRow.get(idColumn)).longValue();
+            if (id >= firstRowId && id <= lastRowId) {
+                Object[] row = new Object[columnNames.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = tableRow.get(columnNames[i]);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void addCommitListener(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    @Override
+    public void addRejectListener(Consumer<Object[]> listener) {
+        rejectListeners.add(listener);
+    }
+
+    @Override
+    public void setDeferCommits(boolean defer) {
+        this.deferCommits = defer;
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        if (sinceFlush + chunk.size() >= commitInterval) {
+            flush();
+        }
+        checkpointChunk = chunk.size();
+        checkpointFirstId = -1;
+    }
+
+    // Drops the chunk's rows since the checkpoint and deletes those already written. Updates made
+    // through Jackcess cannot be taken back.
+    @Override
+    public void rollback() throws IOException {
+        List<Object[]> discarded = new ArrayList<>();
+        if (checkpointFirstId >= 0) {
+            String idColumn = table.getColumns().get(rowIdPosition).getName();
+            Cursor cursor = CursorBuilder.createCursor(table);
+            while (cursor.moveToNextRow()) {
+                Row tableRow = cursor.getCurrentRow();
+                if (((Number) tableRow.get(idColumn)).longValue() >= checkpointFirstId) {
+                    Object[] row = new Object[columnNames.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = tableRow.get(columnNames[i]);
+                    }
+                    discarded.add(row);
+                    cursor.deleteCurrentRow();
+                }
+            }
+            inserted -= discarded.size();
+            sinceFlush -= discarded.size();
+            runMetrics.rowsWritten(-discarded.size());
+            // getLastRowId() looks the highest remaining row id up again
+            lastRowIdKnown = false;
+        }
+        List<Object[]> unwritten = chunk.subList(checkpointChunk, chunk.size());
+        for (Object[] tableRow : unwritten) {
+            discarded.add(addOrder(tableRow));
+        }
+        unwritten.clear();
+        checkpointFirstId = -1;
+        for (int r = discarded.size() - 1; r >= 0; r--) {
+            for (Consumer<Object[]> listener : rejectListeners) {
+                listener.accept(discarded.get(r));
+            }
+        }
+    }
+
+    // Jackcess cannot take back rows addRows has written; they reach the file when it closes, but
+    // past the last commit's row id, where resumeFromManifest deletes them
+    @Override
+    public void abort() {
+        aborted = true;
+        chunk.clear();
+    }
+
+    @Override
+    public long getInserted() {
+        return inserted;
+    }
+
+    @Override
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("Inserted %d records (%d failed) in %.1fs, %.0f rows/sec",
+                inserted, failed, seconds, seconds > 0 ? inserted / seconds : 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!aborted) {
+                flush();
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Run_mode=server: stays resident and runs conversion jobs sent over a local TCP socket, so the
+// JVM, the UCanAccess driver, the parsed config and the schema mapping stay loaded (and the code
+// JIT-compiled) from one job to the next.
+//
+// A client connects to Server_port (default 7878, bound to Server_bind, default 127.0.0.1) and
+// sends config lines in config.properties syntax, ended by an empty line. They override the
+// server's config for that job only; at least Input_path, plus Handling_type (general/special)
+// and Output_format (mdb/csv) unless the server's config already sets them. The server answers on
+// the same connection, one line at a time:
+//
+//   QUEUED <job>                   while Server_max_jobs (default 2) jobs are running
+//   STARTED <job>
+//   ...                            the job's console output, progress lines included
+//   DONE <job> files=<n> rows=<n> failed=<n> seconds=<s>
+//   FAILED <job> <message>
+//
+// Jobs writing to the same Output_path run one after the other. "pnpRefTool submit Key=value ..."
+// is a client that prints the answer and exits with 1 unless the job is DONE.
+public class jobServer {
+    private static final InheritableThreadLocal<PrintStream> JOB_OUTPUT = new InheritableThreadLocal<>();
+
+    private final Properties config;
+    private final Semaphore slots;
+    private final Map<String, ReentrantLock> outputLocks = new ConcurrentHashMap<>();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final PrintStream console;
+
+    private jobServer(Properties config) {
+        this.config = config;
+        this.slots = new Semaphore(Math.max(1, Integer.parseInt(config.getProperty("Server_max_jobs", "2").trim())), true);
+        this.console = System.out;
+    }
+
+    public static void run(Properties config) {
+        jobServer server = new jobServer(config);
+        int port = Integer.parseInt(config.getProperty("Server_port", "7878").trim());
+        String bind = config.getProperty("Server_bind", "127.0.0.1").trim();
+
+        server.warmUp();
+        // Console output of a job goes to its client; anything else still reaches the console
+        System.setOut(routed(System.out));
+        System.setErr(routed(System.err));
+
+        ExecutorService connections = Executors.newCachedThreadPool(qcaPipeline.namedThreads("job"));
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getByName(bind))) {
+            server.console.println("Job server listening on " + bind + ":" + port + ", up to "
+                    + server.slots.availablePermits() + " jobs at a time");
+            while (true) {
+                Socket client = socket.accept();
+                connections.execute(() -> server.serve(client));
+            }
+        } catch (IOException e) {
+            System.err.println("Error running job server: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    // Loads the driver and the default schema before the first job needs them
+    private void warmUp() {
+        try {
+            Class.forName("net.ucanaccess.jdbc.UcanaccessDriver");
+            String schemaMdbPath = config.getProperty("Schema_MDB");
+            if (schemaMdbPath != null) {
+                schemaCache.loadFields(schemaMdbPath, config.getProperty("Schema_cache"));
+            }
+        } catch (Exception e) {
+            System.err.println("Warning: Could not preload the schema: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket client) {
+        long job = jobIds.incrementAndGet();
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8")) {
+            StringBuilder request = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
+                request.append(line).append('\n');
+            }
+            Properties jobConfig = new Properties(config);
+            jobConfig.load(new StringReader(request.toString()));
+
+            String handlingType = jobConfig.getProperty("Handling_type", "general").toLowerCase().trim();
+            String outputFormat = jobConfig.getProperty("Output_format", "mdb").toLowerCase().trim();
+            if (!handlingType.equals("general") && !handlingType.equals("special")) {
+                out.println("FAILED " + job + " Unknown Handling_type '" + handlingType + "'");
+                return;
+            }
+            if (!outputFormat.equals("mdb") && !outputFormat.equals("csv")) {
+                out.println("FAILED " + job + " Unknown Output_format '" + outputFormat + "'");
+                return;
+            }
+            if (jobConfig.getProperty("Input_path") == null) {
+                out.println("FAILED " + job + " Input_path is not set");
+                return;
+            }
+
+            ReentrantLock outputLock = outputLocks.computeIfAbsent(
+                    Paths.get(jobConfig.getProperty("Output_path", ".").trim()).toAbsolutePath().normalize().toString(),
+                    path -> new ReentrantLock(true));
+            if (outputLock.isLocked() || slots.availablePermits() == 0) {
+                out.println("QUEUED " + job);
+            }
+            outputLock.lock();
+            try {
+                slots.acquire();
+                try {
+                    runJob(job, jobConfig, handlingType, outputFormat, out);
+                } finally {
+                    slots.release();
+                }
+            } finally {
+                outputLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            console.println("Error serving job " + job + ": " + e.getMessage());
+        }
+    }
+
+    private void runJob(long job, Properties jobConfig, String handlingType, String outputFormat, PrintStream out) {
+        console.println("Job " + job + " started: " + handlingType + " " + outputFormat + " from "
+                + jobConfig.getProperty("Input_path"));
+        out.println("STARTED " + job);
+        JOB_OUTPUT.set(out);
+        runMetrics.beginScope();
+        String result;
+        try {
+            boolean done = handlingType.equals("special") ? specialHandler.run(jobConfig)
+                    : generalHandler.run(jobConfig, outputFormat);
+            result = !done ? "FAILED " + job + " Output incomplete; see the job's errors"
+                    : String.format("DONE %d files=%d rows=%d failed=%d seconds=%.1f", job, runMetrics.getFiles(),
+                    runMetrics.getRows(), runMetrics.getFailedRows(), runMetrics.elapsedSeconds());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            result = "FAILED " + job + " " + e.getMessage();
+        } finally {
+            runMetrics.endScope();
+            JOB_OUTPUT.remove();
+        }
+        out.println(result);
+        console.println("Job " + job + ": " + result);
+    }
+
+    // Writes to the calling job's client when there is one, otherwise to fallback
+    private static PrintStream routed(PrintStream fallback) {
+        OutputStream stream = new OutputStream() {
+            private OutputStream target() {
+                PrintStream job = JOB_OUTPUT.get();
+                return job != null ? job : fallback;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                target().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                target().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target().flush();
+            }
+        };
+        try {
+            return new PrintStream(stream, true, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Sends one job (Key=value arguments) to a running server and copies its answer to the console;
+    // returns whether the job finished
+    public static boolean submit(Properties config, String[] settings) {
+        int port = Integer.parseInt(config.getProperty("Server_port", "7878").trim());
+        String bind = config.getProperty("Server_bind", "127.0.0.1").trim();
+        try (Socket socket = new Socket(bind, port);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String setting : settings) {
+                // Properties syntax treats a backslash as an escape, as in config.properties
+                out.println(setting.replace("\\", "\\\\"));
+            }
+            out.println();
+            boolean done = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+                done = line.startsWith("DONE ");
+            }
+            return done;
+        } catch (IOException e) {
+            System.err.println("Error submitting job to " + bind + ":" + port + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Types;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Compiled form of the Liaison_column.N spec that maps extracted field values onto Liaison columns.
+// Each column is read once at startup into its source fields, default, length limit and date or
+// concat rule; building a row is then a few map probes with no parsing of the spec. A plan is
+// immutable and can be shared between threads.
+//
+//   Liaison_column.N=<column>            Liaison column, in INSERT order
+//   Liaison_column.N.source=<a>|<b>      one field, or several joined by a space (trimmed, blanks skipped)
+//   Liaison_column.N.concat=<template>   ${field} placeholders; a [...] part is dropped when a field in it is empty
+//   Liaison_column.N.default=<value>     used when the sources give nothing; alone it makes a constant column
+//   Liaison_column.N.max_length=<n>      longer values are cut to n-3 characters plus "..."
+//   Liaison_column.N.date=<pattern>      DateTimeFormatter pattern, resolved strictly; the column becomes a DATE
+public class liaisonPlan {
+    static final String DEFAULT_SPEC = String.join("\n",
+            "Liaison_column.1=App Date",
+            "Liaison_column.1.source=Date Sold",
+            "Liaison_column.1.date=M/d/uuuu",
+            "Liaison_column.2=Type",
+            "Liaison_column.2.source=BODY TYPE",
+            "Liaison_column.2.default=UNKNOWN",
+            "Liaison_column.2.max_length=20",
+            "Liaison_column.3=Make",
+            "Liaison_column.3.source=Make",
+            "Liaison_column.3.default=TOYOTA",
+            "Liaison_column.4=Model",
+            "Liaison_column.4.source=Model",
+            "Liaison_column.4.default=UNKNOWN",
+            "Liaison_column.4.max_length=20",
+            "Liaison_column.5=Year",
+            "Liaison_column.5.source=YEAR",
+            "Liaison_column.5.default=2024",
+            "Liaison_column.6=Color",
+            "Liaison_column.6.source=Color",
+            "Liaison_column.6.default=NOT SPECIFIED",
+            "Liaison_column.6.max_length=20",
+            "Liaison_column.7=Plate #",
+            "Liaison_column.7.source=Conduction Sitcker No./Plate Number",
+            "Liaison_column.7.default=PENDING",
+            "Liaison_column.8=Engine #",
+            "Liaison_column.8.source=ENGINE NO",
+            "Liaison_column.9=Chasis #",
+            "Liaison_column.9.source=CHASSIS#",
+            "Liaison_column.10=MVCO OR #",
+            "Liaison_column.10.default=21201218",
+            "Liaison_column.11=Owner",
+            "Liaison_column.11.concat=${Last Name}[, ${First Name}][ ${Middle Name}][ ${Extension}]",
+            "Liaison_column.11.default=NOT SPECIFIED",
+            "Liaison_column.11.max_length=50",
+            "Liaison_column.12=TIN Owner",
+            "Liaison_column.12.source=TIN",
+            "Liaison_column.12.default=000-000-000-000",
+            "Liaison_column.13=Address",
+            "Liaison_column.13.source=Unit No./HouseNo./Floor No.|Building|Street|Barangay|City or Municipality|Province|Zipcode",
+            "Liaison_column.13.default=NOT SPECIFIED",
+            "Liaison_column.13.max_length=100",
+            "Liaison_column.14=Purpose",
+            "Liaison_column.14.default=New Registration",
+            "Liaison_column.15=Acquired From",
+            "Liaison_column.15.default=TOYOTA OTIS INC",
+            "Liaison_column.16=From TIN",
+            "Liaison_column.16.default=003-498-557-000",
+            "Liaison_column.17=From Address",
+            "Liaison_column.17.default=1770 P M GUAZON ST",
+            "Liaison_column.18=Switch",
+            "Liaison_column.18.default=0",
+            "Liaison_column.19=MacroEch",
+            "Liaison_column.19.source=CSR NUMBER",
+            "Liaison_column.20=Operator Id",
+            "Liaison_column.20.default=MVCO");
+
+    private final column[] columns;
+    private final String[] columnNames;
+    private final int[] sqlTypes;
+    private final String insertSql;
+
+    private liaisonPlan(column[] columns) {
+        this.columns = columns;
+        this.columnNames = new String[columns.length];
+        this.sqlTypes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnNames[i] = columns[i].name;
+            sqlTypes[i] = columns[i].date != null ? Types.DATE : Types.VARCHAR;
+        }
+        this.insertSql = "INSERT INTO Liaison ([" + String.join("], [", columnNames) + "]) VALUES ("
+                + String.join(", ", Collections.nCopies(columnNames.length, "?")) + ")";
+    }
+
+    // Uses the Liaison_column entries of config, or the built-in spec when there are none. Source
+    // fields are resolved to the field name instances of fieldIndex (when given), which are the
+    // keys of every extracted record. Throws IllegalArgumentException for a malformed spec.
+    public static liaisonPlan compile(Properties config, fieldLookupIndex fieldIndex) {
+        Properties spec = config;
+        if (config.getProperty("Liaison_column.1") == null) {
+            spec = new Properties();
+            try {
+                spec.load(new StringReader(DEFAULT_SPEC));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Map<String, String> knownNames = new HashMap<>();
+        if (fieldIndex != null) {
+            for (String name : fieldIndex.names()) {
+                knownNames.put(name, name);
+            }
+        }
+
+        List<column> columns = new ArrayList<>();
+        for (int n = 1; spec.getProperty("Liaison_column." + n) != null; n++) {
+            columns.add(compileColumn(spec, "Liaison_column." + n, knownNames));
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("no Liaison_column.1 entry");
+        }
+        return new liaisonPlan(columns.toArray(new column[0]));
+    }
+
+    private static column compileColumn(Properties spec, String key, Map<String, String> knownNames) {
+        column c = new column(spec.getProperty(key).trim());
+
+        String source = spec.getProperty(key + ".source");
+        if (source != null && !source.trim().isEmpty()) {
+            String[] sources = source.split("\\|");
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = resolve(sources[i].trim(), knownNames, key);
+            }
+            c.sources = sources;
+        }
+
+        String concat = spec.getProperty(key + ".concat");
+        if (concat != null && !concat.trim().isEmpty()) {
+            if (c.sources != null) {
+                throw new IllegalArgumentException(key + " has both a source and a concat rule");
+            }
+            c.concat = parseConcat(concat.trim(), knownNames, key);
+        }
+
+        c.defaultValue = spec.getProperty(key + ".default", "");
+
+        String maxLength = spec.getProperty(key + ".max_length");
+        if (maxLength != null && !maxLength.trim().isEmpty()) {
+            try {
+                c.maxLength = Integer.parseInt(maxLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + ".max_length is not a number: " + maxLength);
+            }
+        }
+
+        String date = spec.getProperty(key + ".date");
+        if (date != null && !date.trim().isEmpty()) {
+            if (c.sources == null || c.sources.length != 1) {
+                throw new IllegalArgumentException(key + ".date needs exactly one source field");
+            }
+            try {
+                c.date = DateTimeFormatter.ofPattern(date.trim()).withResolverStyle(ResolverStyle.STRICT);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(key + ".date: " + e.getMessage());
+            }
+        }
+        return c;
+    }
+
+    // Splits a concat template into literal and ${field} parts; a [...] group becomes one optional part list
+    private static part[][] parseConcat(String template, Map<String, String> knownNames, String key) {
+        List<part[]> groups = new ArrayList<>();
+        List<part> current = new ArrayList<>();
+        boolean optional = false;
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char ch = template.charAt(i);
+            if (ch == '$' && i + 1 < template.length() && template.charAt(i + 1) == '{') {
+                int end = template.indexOf('}', i + 2);
+                if (end < 0) {
+                    throw new IllegalArgumentException(key + ".concat has an unclosed ${");
+                }
+                addLiteral(current, literal);
+                current.add(new part(resolve(template.substring(i + 2, end).trim(), knownNames, key), true));
+                i = end + 1;
+                continue;
+            }
+            if (ch == '[' || ch == ']') {
+                if ((ch == '[') == optional) {
+                    throw new IllegalArgumentException(key + ".concat has unbalanced [ ]");
+                }
+                addLiteral(current, literal);
+                if (!current.isEmpty()) {
+                    groups.add(group(current, optional));
+                }
+                current.clear();
+                optional = ch == '[';
+            } else {
+                literal.append(ch);
+            }
+            i++;
+        }
+        if (optional) {
+            throw new IllegalArgumentException(key + ".concat has unbalanced [ ]");
+        }
+        addLiteral(current, literal);
+        if (!current.isEmpty()) {
+            groups.add(group(current, false));
+        }
+        return groups.toArray(new part[0][]);
+    }
+
+    private static void addLiteral(List<part> parts, StringBuilder literal) {
+        if (literal.length() > 0) {
+            parts.add(new part(literal.toString(), false));
+            literal.setLength(0);
+        }
+    }
+
+    // Optional groups are marked by a leading null so render() can tell them apart
+    private static part[] group(List<part> parts, boolean optional) {
+        List<part> group = new ArrayList<>();
+        if (optional) {
+            group.add(null);
+        }
+        group.addAll(parts);
+        return group.toArray(new part[0]);
+    }
+
+    private static String resolve(String field, Map<String, String> knownNames, String key) {
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException(key + " names an empty field");
+        }
+        String known = knownNames.get(field);
+        if (known == null && !knownNames.isEmpty()) {
+            System.err.println("Warning: " + key + " field '" + field + "' is not in the schema");
+        }
+        return known != null ? known : field;
+    }
+
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    public int[] getSqlTypes() {
+        return sqlTypes.clone();
+    }
+
+    public String getInsertSql() {
+        return insertSql;
+    }
+
+    // Maps the extracted values onto the Liaison columns, in INSERT order
+    public Object[] build(Map<String, String> fieldValues) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            column c = columns[i];
+            if (c.date != null) {
+                row[i] = parseDate(c.date, fieldValues.get(c.sources[0]));
+                continue;
+            }
+
+            String value;
+            if (c.concat != null) {
+                value = concat(c.concat, fieldValues);
+            } else if (c.sources == null) {
+                value = null;
+            } else if (c.sources.length == 1) {
+                value = fieldValues.get(c.sources[0]);
+            } else {
+                value = join(c.sources, fieldValues);
+            }
+            if (value == null || value.trim().isEmpty()) {
+                value = c.defaultValue;
+            }
+            if (c.maxLength > 0 && value.length() > c.maxLength) {
+                value = c.maxLength > 3 ? value.substring(0, c.maxLength - 3) + "..." : value.substring(0, c.maxLength);
+            }
+            row[i] = value;
+        }
+        return row;
+    }
+
+    private static java.sql.Date parseDate(DateTimeFormatter format, String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            // Like SimpleDateFormat.parse, trailing text after the date is ignored
+            return java.sql.Date.valueOf(LocalDate.from(format.parse(text, new ParsePosition(0))));
+        } catch (DateTimeException e) {
+            System.err.println("Error parsing date: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String join(String[] sources, Map<String, String> fieldValues) {
+        StringBuilder joined = null;
+        for (String source : sources) {
+            String part = fieldValues.get(source);
+            if (part == null || part.trim().isEmpty()) {
+                continue;
+            }
+            if (joined == null) {
+                joined = new StringBuilder();
+            } else {
+                joined.append(' ');
+            }
+            joined.append(part.trim());
+        }
+        return joined != null ? joined.toString() : null;
+    }
+
+    private static String concat(part[][] groups, Map<String, String> fieldValues) {
+        StringBuilder text = new StringBuilder();
+        for (part[] group : groups) {
+            boolean optional = group[0] == null;
+            if (optional && !allPresent(group, fieldValues)) {
+                continue;
+            }
+            for (int i = optional ? 1 : 0; i < group.length; i++) {
+                if (group[i].field) {
+                    String value = fieldValues.get(group[i].text);
+                    if (value != null) {
+                        text.append(value);
+                    }
+                } else {
+                    text.append(group[i].text);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean allPresent(part[] group, Map<String, String> fieldValues) {
+        for (int i = 1; i < group.length; i++) {
+            if (group[i].field) {
+                String value = fieldValues.get(group[i].text);
+                if (value == null || value.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class column {
+        final String name;
+        String[] sources;
+        part[][] concat;
+        String defaultValue;
+        int maxLength;
+        DateTimeFormatter date;
+
+        column(String name) {
+            this.name = name;
+        }
+    }
+
+    // A literal piece of a concat template, or (field set) the name of the field to insert
+    private static final class part {
+        final String text;
+        final boolean field;
+
+        part(String text, boolean field) {
+            this.text = text;
+            this.field = field;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Byte-level scanner over a memory-mapped file, tuned to the record/sub-record/field/value shape.
+// Anything it cannot read as an ASCII-compatible encoding is handed to the StAX engine. Files up to
+// MAP_THRESHOLD (every usual QCA file) are read into the heap instead: a mapping cannot be released
+// and keeps the file locked on Windows until it is garbage collected, so a dealer resending into a
+// watched folder could not replace it.
+public class mappedQcaParser implements qcaParser {
+    private static final long MAP_THRESHOLD = 16L << 20;
+
+    private static final byte[] RECORD = ascii("record");
+    private static final byte[] SUB_RECORD = ascii("sub-record");
+    private static final byte[] FIELD = ascii("field");
+    private static final byte[] VALUE = ascii("value");
+    private static final byte[] NO = ascii("no");
+
+    private final qcaParser fallback = new staxQcaParser();
+
+    @Override
+    public qcaReader open(File qcaFile) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(qcaFile, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return fallback.open(qcaFile);
+            }
+            if (size <= MAP_THRESHOLD) {
+                buffer = ByteBuffer.allocate((int) size);
+                // A file cut short meanwhile is parsed as far as it goes
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+            } else {
+                // The mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        int start = 0;
+        if (startsWith(buffer, 0, new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF })) {
+            start = 3;
+        } else if (buffer.limit() >= 2 && ((buffer.get(0) == (byte) 0xFE && buffer.get(1) == (byte) 0xFF)
+                || (buffer.get(0) == (byte) 0xFF && buffer.get(1) == (byte) 0xFE))) {
+            return fallback.open(qcaFile);
+        }
+
+        Charset charset = declaredCharset(buffer, start);
+        if (charset == null) {
+            return fallback.open(qcaFile);
+        }
+        return new mappedReader(buffer, start, charset);
+    }
+
+    // Reads the encoding from the XML declaration; null when it is not a single-byte ASCII superset or UTF-8
+    private static Charset declaredCharset(ByteBuffer buffer, int start) {
+        if (!startsWith(buffer, start, ascii("<?xml"))) {
+            return StandardCharsets.UTF_8;
+        }
+        int end = indexOf(buffer, start, (byte) '?', (byte) '>');
+        if (end < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        byte[] declBytes = new byte[end - start];
+        for (int i = 0; i < declBytes.length; i++) {
+            declBytes[i] = buffer.get(start + i);
+        }
+        String decl = new String(declBytes, StandardCharsets.ISO_8859_1);
+        int at = decl.indexOf("encoding");
+        if (at < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        int open = at + "encoding".length();
+        while (open < decl.length() && decl.charAt(open) != '"' && decl.charAt(open) != '\'') {
+            open++;
+        }
+        int close = open + 1 < decl.length() ? decl.indexOf(decl.charAt(open), open + 1) : -1;
+        if (close < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        String name = decl.substring(open + 1, close).trim().toUpperCase();
+        if (name.equals("UTF-8") || name.equals("UTF8")) {
+            return StandardCharsets.UTF_8;
+        }
+        if (name.equals("US-ASCII") || name.equals("ASCII")) {
+            return StandardCharsets.US_ASCII;
+        }
+        if (name.equals("ISO-8859-1") || name.equals("LATIN1")) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        if (name.equals("WINDOWS-1252") || name.equals("CP1252")) {
+            return Charset.forName("windows-1252");
+        }
+        return null;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int at, byte[] prefix) {
+        if (at + prefix.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(at + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, byte a, byte b) {
+        int limit = buffer.limit() - 1;
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == a && buffer.get(i + 1) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class mappedReader implements qcaReader {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final Charset charset;
+        private int pos;
+        private int recordDepth;
+        private int recordCount;
+
+        // Raw bytes of the value being captured, decoded once the value element closes
+        private byte[] raw = new byte[256];
+        private int rawLength;
+        private final StringBuilder text = new StringBuilder();
+
+        // Scratch space for the current element name and attribute values
+        private byte[] name = new byte[32];
+        private int nameLength;
+
+        mappedReader(ByteBuffer buffer, int start, Charset charset) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            this.charset = charset;
+            this.pos = start;
+        }
+
+        @Override
+        public boolean next(qcaSubRecord subRecord) throws IOException {
+            boolean inSubRecord = false;
+            String fieldNo = null;
+            String value = null;
+            int valueDepth = 0;
+
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b != '<') {
+                    int end = pos;
+                    while (end < limit && buffer.get(end) != '<') {
+                        end++;
+                    }
+                    if (valueDepth > 0) {
+                        appendRaw(pos, end);
+                    }
+                    pos = end;
+                    continue;
+                }
+
+                if (matches(pos + 1, "?")) {
+                    pos = skipPast(pos + 2, "?>");
+                } else if (matches(pos + 1, "!--")) {
+                    pos = skipPast(pos + 4, "-->");
+                } else if (matches(pos + 1, "![CDATA[")) {
+                    int contentStart = pos + 9;
+                    int end = find(contentStart, "]]>");
+                    if (end < 0) {
+                        throw new IOException("Unterminated CDATA section at byte " + pos);
+                    }
+                    if (valueDepth > 0) {
+                        flushRaw();
+                        text.append(decode(contentStart, end));
+                    }
+                    pos = end + 3;
+                } else if (matches(pos + 1, "!")) {
+                    pos = skipDeclaration(pos + 2);
+                } else if (matches(pos + 1, "/")) {
+                    pos = readName(pos + 2);
+                    pos = skipPast(pos, ">");
+                    if (valueDepth > 0) {
+                        if (--valueDepth == 0) {
+                            value = takeText();
+                        }
+                    } else if (nameIs(RECORD)) {
+                        recordDepth--;
+                    } else if (nameIs(FIELD) && fieldNo != null) {
+                        subRecord.add(fieldNo, value == null ? "" : value);
+                        fieldNo = null;
+                    } else if (nameIs(SUB_RECORD) && inSubRecord) {
+                        return true;
+                    }
+                } else {
+                    pos = readName(pos + 1);
+                    int tagStart = pos;
+                    int tagEnd = findTagEnd(pos);
+                    boolean selfClosing = buffer.get(tagEnd - 1) == '/';
+                    pos = tagEnd + 1;
+
+                    if (valueDepth > 0) {
+                        if (!selfClosing) {
+                            valueDepth++;
+                        }
+                    } else if (nameIs(RECORD)) {
+                        recordCount++;
+                        if (!selfClosing) {
+                            recordDepth++;
+                        }
+                    } else if (nameIs(SUB_RECORD) && recordDepth > 0 && !inSubRecord) {
+                        subRecord.reset(recordCount - 1);
+                        if (selfClosing) {
+                            return true;
+                        }
+                        inSubRecord = true;
+                    } else if (nameIs(FIELD) && inSubRecord && fieldNo == null) {
+                        String no = attribute(tagStart, tagEnd, NO);
+                        if (selfClosing) {
+                            subRecord.add(no == null ? "" : no, "");
+                        } else {
+                            fieldNo = no == null ? "" : no;
+                            value = null;
+                        }
+                    } else if (nameIs(VALUE) && fieldNo != null && value == null) {
+                        if (selfClosing) {
+                            value = "";
+                        } else {
+                            valueDepth = 1;
+                            rawLength = 0;
+                            text.setLength(0);
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private boolean matches(int at, String literal) {
+            if (at + literal.length() > limit) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (buffer.get(at + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int find(int from, String literal) {
+            int last = limit - literal.length();
+            byte first = (byte) literal.charAt(0);
+            for (int i = from; i <= last; i++) {
+                if (buffer.get(i) == first && matches(i, literal)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int skipPast(int from, String literal) throws IOException {
+            int at = find(from, literal);
+            if (at < 0) {
+                throw new IOException("Unterminated markup at byte " + from);
+            }
+            return at + literal.length();
+        }
+
+        // Skips <!DOCTYPE ...> including an internal subset in brackets
+        private int skipDeclaration(int from) throws IOException {
+            int depth = 0;
+            for (int i = from; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '[') {
+                    depth++;
+                } else if (b == ']') {
+                    depth--;
+                } else if (b == '>' && depth <= 0) {
+                    return i + 1;
+                }
+            }
+            throw new IOException("Unterminated declaration at byte " + from);
+        }
+
+        private int readName(int from) {
+            nameLength = 0;
+            int i = from;
+            while (i < limit) {
+                byte b = buffer.get(i);
+                if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                    break;
+                }
+                if (nameLength == name.length) {
+                    name = Arrays.copyOf(name, nameLength * 2);
+                }
+                name[nameLength++] = b;
+                i++;
+            }
+            return i;
+        }
+
+        private boolean nameIs(byte[] expected) {
+            if (nameLength != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < nameLength; i++) {
+                if (name[i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Position of the closing '>' of a start tag, skipping quoted attribute values
+        private int findTagEnd(int from) throws IOException {
+            byte quote = 0;
+            for (int i = from; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return i;
+                }
+            }
+            throw new IOException("Unterminated start tag at byte " + from);
+        }
+
+        private String attribute(int from, int to, byte[] attributeName) {
+            int i = from;
+            while (i < to) {
+                while (i < to && isSpace(buffer.get(i))) {
+                    i++;
+                }
+                int nameStart = i;
+                while (i < to && buffer.get(i) != '=' && !isSpace(buffer.get(i)) && buffer.get(i) != '/') {
+                    i++;
+                }
+                int nameEnd = i;
+                while (i < to && buffer.get(i) != '"' && buffer.get(i) != '\'') {
+                    if (buffer.get(i) != '=' && !isSpace(buffer.get(i))) {
+                        break;
+                    }
+                    i++;
+                }
+                if (i >= to || (buffer.get(i) != '"' && buffer.get(i) != '\'')) {
+                    i++;
+                    continue;
+                }
+                byte quote = buffer.get(i);
+                int valueStart = ++i;
+                while (i < to && buffer.get(i) != quote) {
+                    i++;
+                }
+                int valueEnd = i++;
+
+                if (nameEnd - nameStart == attributeName.length) {
+                    boolean same = true;
+                    for (int k = 0; k < attributeName.length && same; k++) {
+                        same = buffer.get(nameStart + k) == attributeName[k];
+                    }
+                    if (same) {
+                        return expandEntities(decode(valueStart, valueEnd));
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+        }
+
+        private void appendRaw(int from, int to) {
+            int length = to - from;
+            if (rawLength + length > raw.length) {
+                raw = Arrays.copyOf(raw, Math.max(raw.length * 2, rawLength + length));
+            }
+            for (int i = from; i < to; i++) {
+                raw[rawLength++] = buffer.get(i);
+            }
+        }
+
+        private void flushRaw() {
+            if (rawLength > 0) {
+                text.append(expandEntities(new String(raw, 0, rawLength, charset)));
+                rawLength = 0;
+            }
+        }
+
+        private String takeText() {
+            if (text.length() == 0) {
+                String value = expandEntities(new String(raw, 0, rawLength, charset));
+                rawLength = 0;
+                return value;
+            }
+            flushRaw();
+            return text.toString();
+        }
+
+        private String decode(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            return new String(bytes, charset);
+        }
+
+        // Applies the XML line-ending normalization and the predefined/numeric entity references
+        private static String expandEntities(String s) {
+            if (s.indexOf('&') < 0 && s.indexOf('\r') < 0) {
+                return s;
+            }
+            StringBuilder out = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\r') {
+                    out.append('\n');
+                    if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    continue;
+                }
+                if (c != '&') {
+                    out.append(c);
+                    continue;
+                }
+                int semi = s.indexOf(';', i);
+                if (semi < 0) {
+                    out.append(c);
+                    continue;
+                }
+                String entity = s.substring(i + 1, semi);
+                if (entity.equals("amp")) {
+                    out.append('&');
+                } else if (entity.equals("lt")) {
+                    out.append('<');
+                } else if (entity.equals("gt")) {
+                    out.append('>');
+                } else if (entity.equals("quot")) {
+                    out.append('"');
+                } else if (entity.equals("apos")) {
+                    out.append('\'');
+                } else if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                    out.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                } else if (entity.startsWith("#")) {
+                    out.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                } else {
+                    out.append(c);
+                    continue;
+                }
+                i = semi;
+            }
+            return out.toString();
+        }
+    }
+}
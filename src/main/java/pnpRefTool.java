@@ -1,16 +1,52 @@
+import java.util.Arrays;
 import java.util.Scanner;
 import java.io.*;
 import java.util.Properties;
 
 public class pnpRefTool {
     public static void main(String[] args) {
-        // Load configuration
-        Properties config = loadConfig("config/config.properties");
+        // Load configuration; -Dpnp.config points elsewhere (coordinator workers)
+        Properties config = loadConfig(System.getProperty("pnp.config", "config/config.properties"));
         if (config == null) {
             System.err.println("Failed to load configuration. Exiting...");
             return;
         }
 
+        // "submit Key=value ..." hands one job to a running server (Run_mode=server)
+        if (args.length > 0 && args[0].equals("submit")) {
+            boolean done = jobServer.submit(config, Arrays.copyOfRange(args, 1, args.length));
+            System.exit(done ? 0 : 1);
+        }
+
+        // Run_mode=watch keeps running and loads files as they arrive, configured without prompts
+        if (config.getProperty("Run_mode", "once").toLowerCase().trim().equals("watch")) {
+            watchDaemon.run(config);
+            return;
+        }
+
+        // Run_mode=server keeps running and takes jobs over a local socket
+        if (config.getProperty("Run_mode", "once").toLowerCase().trim().equals("server")) {
+            jobServer.run(config);
+            return;
+        }
+
+        // Run_mode=coordinator splits the input across worker JVMs and merges their outputs
+        if (config.getProperty("Run_mode", "once").toLowerCase().trim().equals("coordinator")) {
+            System.exit(coordinator.run(config) ? 0 : 1);
+        }
+
+        // Run_mode=worker converts once without prompts, per Handling_type and Output_format; exits
+        // with 1 when the output is incomplete, so the coordinator retries the shard
+        if (config.getProperty("Run_mode", "once").toLowerCase().trim().equals("worker")) {
+            boolean done;
+            if (config.getProperty("Handling_type", "general").toLowerCase().trim().equals("special")) {
+                done = specialHandler.run(config);
+            } else {
+                done = generalHandler.run(config, config.getProperty("Output_format", "mdb").toLowerCase().trim());
+            }
+            System.exit(done ? 0 : 1);
+        }
+
         Scanner scanner = new Scanner(System.in);
 
         //Prompt for handling type
@@ -0,0 +1,31 @@
+import java.io.File;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class qcaExtractor {
+    private qcaExtractor() {
+    }
+
+    // Collapses every sub-record of the file into one field name -> value map
+    public static Map<String, String> extractFieldValues(qcaParser parser, File qcaFile, fieldLookupIndex fieldIndex) {
+        try (qcaRowIterator rows = new qcaRowIterator(parser, qcaFile, fieldIndex, "file")) {
+            return rows.next();
+        }
+    }
+
+    // Rows of the file at the given granularity (file, record or sub-record), read as they are consumed
+    public static qcaRowIterator rows(qcaParser parser, File qcaFile, fieldLookupIndex fieldIndex, String granularity) {
+        return new qcaRowIterator(parser, qcaFile, fieldIndex, granularity);
+    }
+
+    // The same rows as a sequential stream; closing the stream closes the file
+    public static Stream<Map<String, String>> stream(qcaParser parser, File qcaFile, fieldLookupIndex fieldIndex,
+            String granularity) {
+        qcaRowIterator rows = rows(parser, qcaFile, fieldIndex, granularity);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(rows::close);
+    }
+}
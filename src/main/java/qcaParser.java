@@ -0,0 +1,22 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+public interface qcaParser {
+    qcaReader open(File qcaFile) throws IOException;
+
+    static qcaParser fromConfig(Properties config) {
+        String engine = config.getProperty("Parser_engine", "stax").toLowerCase().trim();
+        switch (engine) {
+            case "dom":
+                return new domQcaParser();
+            case "mapped":
+                return new mappedQcaParser();
+            case "stax":
+                return new staxQcaParser();
+            default:
+                System.err.println("Unknown Parser_engine '" + engine + "', falling back to stax");
+                return new staxQcaParser();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Parses and maps files on a worker pool while a single writer stage consumes the results
+// in input order. The bounded queue of in-flight results provides the backpressure.
+public class qcaPipeline {
+    private static final Future<Object> END = CompletableFuture.completedFuture(null);
+    private static final BlockingQueue<Object> END_OF_FILES = new ArrayBlockingQueue<>(1);
+    private static final Object END_OF_FILE = new Object();
+
+    private final int workerThreads;
+    private final int queueCapacity;
+
+    public qcaPipeline(int workerThreads, int queueCapacity) {
+        this.workerThreads = Math.max(1, workerThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    public static qcaPipeline fromConfig(Properties config) {
+        // Blank means the default: one worker per core, four results in flight per worker
+        int workers = intOrDefault(config.getProperty("Worker_threads"), Runtime.getRuntime().availableProcessors());
+        int capacity = intOrDefault(config.getProperty("Queue_capacity"), Math.max(1, workers) * 4);
+        return new qcaPipeline(workers, capacity);
+    }
+
+    private static int intOrDefault(String value, int defaultValue) {
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> void run(List<File> files, Function<File, T> stage, BiConsumer<File, T> writer) {
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads, namedThreads("qca-worker"));
+        BlockingQueue<Future<?>> inFlight = new ArrayBlockingQueue<>(queueCapacity);
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (File file : files) {
+                    inFlight.put(workers.submit(() -> stage.apply(file)));
+                }
+                inFlight.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "qca-producer");
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            int index = 0;
+            while (true) {
+                Future<?> next = inFlight.take();
+                if (next == END) {
+                    break;
+                }
+                File file = files.get(index++);
+                T result;
+                try {
+                    result = (T) next.get();
+                } catch (ExecutionException e) {
+                    // The output then lacks the file; the run reports it as failed
+                    System.err.println("Error processing file " + file.getName() + ": " + e.getCause());
+                    e.getCause().printStackTrace();
+                    runMetrics.outputFailed();
+                    continue;
+                }
+                writer.accept(file, result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Pipeline interrupted");
+        } finally {
+            producer.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    // Like run(), but each file yields a sequence of results that reach the writer while the file is
+    // still being read. Every file in flight buffers at most bufferSize results, so memory no longer
+    // depends on file size. fileDone runs on the writer thread after a file's last result, with the
+    // number of results it yielded. A file that fails part way gets fileFailed instead, once the writer
+    // has seen the results it yielded before the failure.
+    public <R> void stream(List<File> files, Function<File, Iterator<R>> source, int bufferSize,
+            BiConsumer<File, R> writer, BiConsumer<File, Long> fileDone, Consumer<File> fileFailed) {
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads, namedThreads("qca-worker"));
+        BlockingQueue<BlockingQueue<Object>> inFlight = new ArrayBlockingQueue<>(queueCapacity);
+        int capacity = Math.max(1, bufferSize);
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (File file : files) {
+                    BlockingQueue<Object> channel = new ArrayBlockingQueue<>(capacity);
+                    inFlight.put(channel);
+                    workers.submit(() -> fill(file, source, channel));
+                }
+                inFlight.put(END_OF_FILES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "qca-producer");
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            int index = 0;
+            while (true) {
+                BlockingQueue<Object> channel = inFlight.take();
+                if (channel == END_OF_FILES) {
+                    break;
+                }
+                File file = files.get(index++);
+                long count = 0;
+                while (true) {
+                    Object item = channel.take();
+                    if (item == END_OF_FILE) {
+                        fileDone.accept(file, count);
+                        break;
+                    }
+                    if (item instanceof failure) {
+                        Throwable cause = ((failure) item).cause;
+                        System.err.println("Error processing file " + file.getName() + ": " + cause);
+                        cause.printStackTrace();
+                        runMetrics.outputFailed();
+                        fileFailed.accept(file);
+                        break;
+                    }
+                    @SuppressWarnings("unchecked")
+                    R result = (R) item;
+                    writer.accept(file, result);
+                    count++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Pipeline interrupted");
+        } finally {
+            producer.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private static <R> void fill(File file, Function<File, Iterator<R>> source, BlockingQueue<Object> channel) {
+        Iterator<R> results = null;
+        try {
+            results = source.apply(file);
+            while (results.hasNext()) {
+                channel.put(results.next());
+            }
+            channel.put(END_OF_FILE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Errors too (e.g. OutOfMemoryError on a huge file): the writer waits for this file until
+            // it sees either its end or a failure
+            try {
+                channel.put(new failure(e));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            if (results instanceof Closeable) {
+                try {
+                    ((Closeable) results).close();
+                } catch (IOException e) {
+                    System.err.println("Error closing " + file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static final class failure {
+        final Throwable cause;
+
+        failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
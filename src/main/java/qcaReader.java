@@ -0,0 +1,13 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface qcaReader extends Closeable {
+    // Fills the holder with the next sub-record; returns false once the file is exhausted
+    boolean next(qcaSubRecord subRecord) throws IOException;
+
+    // Number of record elements seen so far
+    int getRecordCount();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,153 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+// Lazily turns one QCA file into output rows (field name -> value), per Extract_granularity:
+//   file       - one row per file with every sub-record merged into it, later values winning (the original behaviour)
+//   record     - one row per record element, merging its sub-records
+//   sub-record - one row per sub-record
+// Only the row being built is held, so with the stax and mapped engines memory is bounded by the
+// largest record rather than the file (the dom engine still loads the whole document).
+public class qcaRowIterator implements Iterator<Map<String, String>>, Closeable {
+    private final File qcaFile;
+    private final fieldLookupIndex fieldIndex;
+    private final boolean perFile;
+    private final boolean perSubRecord;
+    private final qcaSubRecord subRecord = new qcaSubRecord();
+    private qcaReader reader;
+    private boolean subRecordPending;
+    private boolean exhausted;
+    private boolean fileRowReturned;
+    private Map<String, String> next;
+
+    public qcaRowIterator(qcaParser parser, File qcaFile, fieldLookupIndex fieldIndex, String granularity) {
+        this.qcaFile = qcaFile;
+        this.fieldIndex = fieldIndex;
+        this.perFile = granularity.equals("file");
+        this.perSubRecord = granularity.equals("sub-record");
+        try {
+            this.reader = parser.open(qcaFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+            finish();
+        }
+    }
+
+    public static String granularity(Properties config) {
+        String granularity = config.getProperty("Extract_granularity", "file").toLowerCase().trim();
+        if (!granularity.equals("file") && !granularity.equals("record") && !granularity.equals("sub-record")) {
+            System.err.println("Unknown Extract_granularity '" + granularity + "', using file");
+            return "file";
+        }
+        return granularity;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, String> row = next;
+        next = null;
+        return row;
+    }
+
+    private Map<String, String> advance() {
+        Map<String, String> row = null;
+        int recordIndex = -1;
+        while (!exhausted || subRecordPending) {
+            if (!subRecordPending) {
+                long start = System.nanoTime();
+                boolean more;
+                try {
+                    more = reader.next(subRecord);
+                } catch (Exception e) {
+                    // Like a truncated file: whatever was read so far is still returned
+                    e.printStackTrace();
+                    more = false;
+                }
+                runMetrics.PARSE.record(start);
+                if (!more) {
+                    finish();
+                    break;
+                }
+                subRecordPending = true;
+            }
+
+            // A sub-record of the next row stays pending until the following call
+            if (row != null && !perFile && (perSubRecord || subRecord.getRecordIndex() != recordIndex)) {
+                break;
+            }
+            if (row == null) {
+                row = new HashMap<>();
+                recordIndex = subRecord.getRecordIndex();
+            }
+            map(row);
+            subRecordPending = false;
+        }
+
+        // Per file there is always exactly one row, possibly empty
+        if (perFile && !fileRowReturned) {
+            fileRowReturned = true;
+            return row != null ? row : new HashMap<>();
+        }
+        return perFile ? null : row;
+    }
+
+    private void map(Map<String, String> row) {
+        long start = System.nanoTime();
+        int docType = fieldIndex.docTypeOrdinal(subRecord.getDocumentType());
+        for (int k = 0; k < subRecord.size(); k++) {
+            String value = subRecord.getValue(k);
+
+            if (value.equals("$") || value.trim().isEmpty()) {
+                continue;
+            }
+
+            // Doc-type-specific name first, then the generic one
+            int field = fieldIndex.lookup(docType, subRecord.getFieldNo(k));
+            if (field >= 0) {
+                row.put(fieldIndex.name(field), value);
+            }
+        }
+        runMetrics.MAP.record(start);
+    }
+
+    private void finish() {
+        if (exhausted) {
+            return;
+        }
+        exhausted = true;
+        if (reader != null) {
+            if (runMetrics.DEBUG) System.out.println("Found " + reader.getRecordCount() + " records in " + qcaFile.getName());
+            close();
+        }
+        runMetrics.fileDone();
+    }
+
+    @Override
+    public void close() {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + qcaFile.getName() + ": " + e.getMessage());
+        }
+        reader = null;
+    }
+}
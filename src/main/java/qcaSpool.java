@@ -0,0 +1,537 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Parse-once spool of the sub-records read from each QCA file, so a drop can be converted again in
+// another format, or through the other handler, without parsing the XML again. The spool stores
+// what the parser produced (record index, then each field's schema field number and value), not
+// mapped rows, so either handler's field mapping and every Extract_granularity replay it exactly.
+//
+//   Spool_path=        off when empty, e.g. C:\\DEV_EXAM\\input\\exam\\output\\qca.spool
+//   Spool_mode=auto    auto: replay the files the spool holds unchanged (same size and modification
+//                      time), parse and record the rest; replay: never record; rebuild: start afresh
+//
+// File layout: the magic, then blocks appended one after the other, each
+//   int raw length, int compressed length, int entries length, entries, Deflater-compressed payload
+// where the entries (path, size, modified, record count, offset and length in the payload) name
+// the files whose sub-records the payload holds. A file's sub-records are encoded as it is parsed
+// and go into the current block once it is read to the end; a block is written when it passes
+// BLOCK bytes and at close. There is no footer: opening scans the block headers, and a block torn
+// by a crash is cut off. Replay maps a block's payload and inflates it once for all its files.
+public class qcaSpool implements qcaParser, Closeable {
+    private static final byte[] MAGIC = "PNPSPL01".getBytes(StandardCharsets.US_ASCII);
+    private static final int BLOCK = 256 * 1024;
+    private static final int HEADER = 12;
+    private static final int CACHED_BLOCKS = 32;
+
+    private final qcaParser parser;
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    // Latest entry per absolute path
+    private final Map<String, entry> entries = new HashMap<>();
+    // Inflated payloads by block offset, least recently used first
+    private final Map<Long, byte[]> inflated = new LinkedHashMap<Long, byte[]>(CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong recorded = new AtomicLong();
+
+    // The block being filled; guarded by this
+    private byte[] pending = new byte[BLOCK];
+    private int pendingSize;
+    private final List<entry> pendingEntries = new ArrayList<>();
+    private long end;
+
+    private qcaSpool(qcaParser parser, Path path, FileChannel channel, FileLock lock) {
+        this.parser = parser;
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    // The parser to use for a run: parser itself without Spool_path, otherwise a spool in front of it.
+    // Close it with finish() once the run is over.
+    public static qcaParser wrap(Properties config, qcaParser parser) {
+        String spoolPath = config.getProperty("Spool_path", "").trim();
+        if (spoolPath.isEmpty()) {
+            return parser;
+        }
+        String mode = config.getProperty("Spool_mode", "auto").toLowerCase().trim();
+        if (!mode.equals("auto") && !mode.equals("replay") && !mode.equals("rebuild")) {
+            System.err.println("Unknown Spool_mode '" + mode + "', using auto");
+            mode = "auto";
+        }
+        Path path = Paths.get(spoolPath);
+        try {
+            if (mode.equals("replay")) {
+                if (!Files.exists(path)) {
+                    System.err.println("Warning: Spool " + path + " not found; parsing every file");
+                    return parser;
+                }
+                qcaSpool spool = new qcaSpool(parser, path, FileChannel.open(path, StandardOpenOption.READ), null);
+                spool.scan(false);
+                return spool;
+            }
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                // Another run is recording into it; what it already holds can still be replayed
+                System.err.println("Warning: Spool " + path + " is in use; replaying only");
+                qcaSpool spool = new qcaSpool(parser, path, channel, null);
+                spool.scan(false);
+                return spool;
+            }
+            if (mode.equals("rebuild")) {
+                channel.truncate(0);
+            }
+            qcaSpool spool = new qcaSpool(parser, path, channel, lock);
+            spool.scan(true);
+            return spool;
+        } catch (IOException e) {
+            System.err.println("Error opening spool " + path + ": " + e.getMessage());
+            e.printStackTrace();
+            return parser;
+        }
+    }
+
+    // Closes the spool a run used, if any
+    public static void finish(qcaParser parser) {
+        if (parser instanceof qcaSpool) {
+            try {
+                ((qcaSpool) parser).close();
+            } catch (IOException e) {
+                System.err.println("Error closing spool: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Reads the block headers and entries; when writing, cuts off a torn last block
+    private void scan(boolean writing) throws IOException {
+        long size = channel.size();
+        if (size == 0 && writing) {
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            end = MAGIC.length;
+            return;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        channel.read(magic, 0);
+        if (size < MAGIC.length || !Arrays.equals(magic.array(), MAGIC)) {
+            if (!writing) {
+                throw new IOException(path + " is not a spool");
+            }
+            System.err.println("Warning: " + path + " is not a spool; starting it afresh");
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            end = MAGIC.length;
+            return;
+        }
+        long offset = MAGIC.length;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (offset + HEADER <= size) {
+            header.clear();
+            channel.read(header, offset);
+            int entriesLength = header.getInt(8);
+            long blockEnd = offset + HEADER + entriesLength + header.getInt(4);
+            if (blockEnd > size || entriesLength < 0) {
+                break;
+            }
+            ByteBuffer entryBytes = ByteBuffer.allocate(entriesLength);
+            channel.read(entryBytes, offset + HEADER);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entryBytes.array()))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entry file = new entry(in.readUTF(), in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readInt());
+                    file.block = offset;
+                    entries.put(file.path, file);
+                }
+            }
+            offset = blockEnd;
+        }
+        end = offset;
+        if (writing && end < size) {
+            System.err.println("Warning: Cutting a torn block off the end of " + path);
+            channel.truncate(end);
+        }
+    }
+
+    @Override
+    public qcaReader open(File qcaFile) throws IOException {
+        String key = qcaFile.getAbsolutePath();
+        entry file = entries.get(key);
+        if (file != null && file.size == qcaFile.length() && file.modified == qcaFile.lastModified()) {
+            replayed.incrementAndGet();
+            return new replayReader(payload(file.block), file);
+        }
+        qcaReader reader = parser.open(qcaFile);
+        return lock != null ? new recordingReader(reader, qcaFile) : reader;
+    }
+
+    private byte[] payload(long block) throws IOException {
+        synchronized (inflated) {
+            byte[] cached = inflated.get(block);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        channel.read(header, block);
+        int rawLength = header.getInt(0);
+        int compressedLength = header.getInt(4);
+        // Read rather than mapped: a mapping cannot be released and would keep a later truncate of the
+        // spool from succeeding on Windows
+        byte[] input = new byte[compressedLength];
+        ByteBuffer compressed = ByteBuffer.wrap(input);
+        long offset = block + HEADER + header.getInt(8);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, offset + compressed.position()) < 0) {
+                throw new IOException("Truncated spool block at " + block + " in " + path);
+            }
+        }
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int done = 0;
+            while (done < rawLength) {
+                int n = inflater.inflate(raw, done, rawLength - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated spool block at " + block + " in " + path);
+                }
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt spool block at " + block + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+        synchronized (inflated) {
+            inflated.put(block, raw);
+        }
+        return raw;
+    }
+
+    // Adds a file read to the end to the current block
+    private synchronized void append(File qcaFile, byte[] data, int length, int recordCount, long size, long modified)
+            throws IOException {
+        if (pendingSize + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + length));
+        }
+        System.arraycopy(data, 0, pending, pendingSize, length);
+        pendingEntries.add(new entry(qcaFile.getAbsolutePath(), size, modified, recordCount, pendingSize, length));
+        pendingSize += length;
+        recorded.incrementAndGet();
+        if (pendingSize >= BLOCK) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] compressed = new byte[pendingSize + pendingSize / 1000 + 64];
+        int compressedLength;
+        try {
+            deflater.setInput(pending, 0, pendingSize);
+            deflater.finish();
+            compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        growableBytes entryBytes = new growableBytes(64 * pendingEntries.size());
+        try (DataOutputStream out = new DataOutputStream(entryBytes)) {
+            out.writeInt(pendingEntries.size());
+            for (entry file : pendingEntries) {
+                out.writeUTF(file.path);
+                out.writeLong(file.size);
+                out.writeLong(file.modified);
+                out.writeInt(file.recordCount);
+                out.writeInt(file.offset);
+                out.writeInt(file.length);
+            }
+        }
+        ByteBuffer block = ByteBuffer.allocate(HEADER + entryBytes.size() + compressedLength);
+        block.putInt(pendingSize).putInt(compressedLength).putInt(entryBytes.size());
+        block.put(entryBytes.array(), 0, entryBytes.size());
+        block.put(compressed, 0, compressedLength);
+        block.flip();
+        while (block.hasRemaining()) {
+            end += channel.write(block, end);
+        }
+        pendingEntries.clear();
+        pendingSize = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (lock != null) {
+                writeBlock();
+                channel.force(false);
+                lock.release();
+            }
+        } finally {
+            channel.close();
+        }
+        System.out.println(String.format("Spool %s: %d files replayed, %d recorded, %.1f MB",
+                path.getFileName(), replayed.get(), recorded.get(), end / 1024.0 / 1024.0));
+    }
+
+    // Sub-record encoding: varint record index, varint field count, then per field the field number
+    // as varint n + 1 (or 0 and a string when it is not a plain number) and the value as a string;
+    // strings are a varint UTF-8 length and the bytes
+    static void encode(qcaSubRecord subRecord, growableBytes out) {
+        out.writeVarint(subRecord.getRecordIndex());
+        out.writeVarint(subRecord.size());
+        for (int i = 0; i < subRecord.size(); i++) {
+            String fieldNo = subRecord.getFieldNo(i);
+            int number = plainNumber(fieldNo);
+            if (number >= 0) {
+                out.writeVarint(number + 1);
+            } else {
+                out.writeVarint(0);
+                out.writeString(fieldNo);
+            }
+            out.writeString(subRecord.getValue(i));
+        }
+    }
+
+    // The value of a canonical non-negative int ("0", "17", not "017" or "+1"), otherwise -1
+    private static int plainNumber(String s) {
+        if (s == null || s.isEmpty() || s.length() > 9 || (s.length() > 1 && s.charAt(0) == '0')) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static final class entry {
+        final String path;
+        final long size;
+        final long modified;
+        final int recordCount;
+        final int offset;
+        final int length;
+        long block;
+
+        entry(String path, long size, long modified, int recordCount, int offset, int length) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.recordCount = recordCount;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Passes the parser's sub-records through and keeps their encoding; the file is recorded only
+    // when it was read to the end
+    private final class recordingReader implements qcaReader {
+        private final qcaReader reader;
+        private final File qcaFile;
+        private final long size;
+        private final long modified;
+        private final growableBytes data = new growableBytes(4096);
+        private boolean complete;
+        private boolean failed;
+
+        recordingReader(qcaReader reader, File qcaFile) {
+            this.reader = reader;
+            this.qcaFile = qcaFile;
+            // Taken before parsing, so a file changed meanwhile is parsed again next time
+            this.size = qcaFile.length();
+            this.modified = qcaFile.lastModified();
+        }
+
+        @Override
+        public boolean next(qcaSubRecord subRecord) throws IOException {
+            boolean more;
+            try {
+                more = reader.next(subRecord);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+            if (more) {
+                encode(subRecord, data);
+            } else {
+                complete = true;
+            }
+            return more;
+        }
+
+        @Override
+        public int getRecordCount() {
+            return reader.getRecordCount();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+            if (complete && !failed) {
+                append(qcaFile, data.array(), data.size(), reader.getRecordCount(), size, modified);
+            }
+        }
+    }
+
+    private static final class replayReader implements qcaReader {
+        private final byte[] raw;
+        private final int end;
+        private final int recordCount;
+        private int position;
+
+        replayReader(byte[] raw, entry file) {
+            this.raw = raw;
+            this.position = file.offset;
+            this.end = file.offset + file.length;
+            this.recordCount = file.recordCount;
+        }
+
+        @Override
+        public boolean next(qcaSubRecord subRecord) {
+            if (position >= end) {
+                return false;
+            }
+            subRecord.reset(readVarint());
+            int fields = readVarint();
+            for (int i = 0; i < fields; i++) {
+                int number = readVarint();
+                String fieldNo = number > 0 ? Integer.toString(number - 1) : readString();
+                subRecord.add(fieldNo, readString());
+            }
+            return true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = raw[position++];
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String readString() {
+            int length = readVarint();
+            String s = new String(raw, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        @Override
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // A ByteArrayOutputStream that hands out its array and writes varints and strings directly
+    static final class growableBytes extends OutputStream {
+        private byte[] bytes;
+        private int size;
+
+        growableBytes(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+public class qcaSubRecord {
+    private int recordIndex;
+    private String documentType = "";
+    private boolean documentTypeFound;
+    private String[] fieldNos = new String[64];
+    private String[] values = new String[64];
+    private int size;
+
+    void reset(int recordIndex) {
+        this.recordIndex = recordIndex;
+        this.documentType = "";
+        this.documentTypeFound = false;
+        Arrays.fill(fieldNos, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        this.size = 0;
+    }
+
+    void add(String fieldNo, String value) {
+        if (size == fieldNos.length) {
+            fieldNos = Arrays.copyOf(fieldNos, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        fieldNos[size] = fieldNo;
+        values[size] = value;
+        size++;
+
+        // The first field no="1" carries the document type for the whole sub-record
+        if (!documentTypeFound && "1".equals(fieldNo)) {
+            documentType = value;
+            documentTypeFound = true;
+        }
+    }
+
+    public int getRecordIndex() {
+        return recordIndex;
+    }
+
+    public String getDocumentType() {
+        return documentType;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getFieldNo(int i) {
+        return fieldNos[i];
+    }
+
+    public String getValue(int i) {
+        return values[i];
+    }
+}
@@ -0,0 +1,402 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Column-wise home for the records a file-granularity run collects before writing them, in place
+// of one HashMap per record. Fields are addressed by ordinal, the schema's first (as in
+// fieldLookupIndex.names()), then any other name in the order it turns up.
+//
+// Records are kept in chunks of CHUNK_ROWS. When a chunk fills, each field's values become one
+// column: a dictionary of the chunk's distinct values with one byte per record while there are
+// at most 255 of them (make, color, province, doc type, ...), otherwise the values' UTF-8 bytes
+// back to back with an end offset per record. A field no record of the chunk has takes no space.
+// Once the filled chunks pass Store_memory_mb (default 256) the oldest go to a spill file under
+// the output directory and are read back one at a time while iterating.
+public class recordStore implements Closeable {
+    static final int CHUNK_ROWS = 4096;
+    private static final int MAX_DICTIONARY = 255;
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    // Ordinals of the fields some record has, in the order they were first seen
+    private final List<Integer> seen = new ArrayList<>();
+    private final BitSet seenFields = new BitSet();
+    private final BitSet emptyRows = new BitSet();
+    private final List<chunk> chunks = new ArrayList<>();
+    private final long memoryLimit;
+    private final File spillDir;
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long memoryBytes;
+    private int firstInMemory;
+    private int size;
+
+    // Values of the chunk being filled, [ordinal][row]
+    private String[][] filling = new String[0][];
+
+    public recordStore(String[] schemaFields, long memoryLimit, File spillDir) {
+        for (String name : schemaFields) {
+            ordinal(name);
+        }
+        this.memoryLimit = memoryLimit;
+        this.spillDir = spillDir;
+    }
+
+    public static long memoryLimit(Properties config) {
+        return Long.parseLong(config.getProperty("Store_memory_mb", "256").trim()) * 1024 * 1024;
+    }
+
+    // A store holding the given records, for callers that already have them as maps
+    public static recordStore of(List<Map<String, String>> records) throws IOException {
+        recordStore store = new recordStore(new String[0], Long.MAX_VALUE, null);
+        for (Map<String, String> record : records) {
+            store.add(record);
+        }
+        return store;
+    }
+
+    private int ordinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        if (ordinal == null) {
+            ordinal = names.size();
+            ordinals.put(name, ordinal);
+            names.add(name);
+        }
+        return ordinal;
+    }
+
+    public void add(Map<String, String> record) throws IOException {
+        int row = size % CHUNK_ROWS;
+        if (record.isEmpty()) {
+            emptyRows.set(size);
+        }
+        for (Map.Entry<String, String> entry : record.entrySet()) {
+            int ordinal = ordinal(entry.getKey());
+            if (!seenFields.get(ordinal)) {
+                seenFields.set(ordinal);
+                seen.add(ordinal);
+            }
+            if (ordinal >= filling.length) {
+                filling = Arrays.copyOf(filling, names.size());
+            }
+            if (filling[ordinal] == null) {
+                filling[ordinal] = new String[CHUNK_ROWS];
+            }
+            filling[ordinal][row] = entry.getValue();
+        }
+        size++;
+        if (size % CHUNK_ROWS == 0) {
+            seal();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Names of the fields some record has, in the order they were first seen
+    public String[] fieldNames() {
+        String[] fieldNames = new String[seen.size()];
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldNames[i] = names.get(seen.get(i));
+        }
+        return fieldNames;
+    }
+
+    // Ordinal of a field for cursor.get(), -1 when no record has it
+    public int fieldOrdinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal != null && seenFields.get(ordinal) ? ordinal : -1;
+    }
+
+    public cursor cursor() {
+        return new cursor();
+    }
+
+    private void seal() throws IOException {
+        int rows = size - chunks.size() * CHUNK_ROWS;
+        if (rows == 0) {
+            return;
+        }
+        column[] columns = new column[filling.length];
+        long bytes = 0;
+        for (int ordinal = 0; ordinal < filling.length; ordinal++) {
+            if (filling[ordinal] != null) {
+                columns[ordinal] = encode(filling[ordinal], rows);
+                bytes += columns[ordinal].bytes();
+            }
+        }
+        filling = new String[names.size()][];
+        chunk sealed = new chunk(columns, bytes);
+        chunks.add(sealed);
+        memoryBytes += bytes;
+        while (memoryBytes > memoryLimit && firstInMemory < chunks.size() && spillDir != null) {
+            spill(chunks.get(firstInMemory++));
+        }
+    }
+
+    private static column encode(String[] values, int rows) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (int r = 0; r < rows && codes.size() <= MAX_DICTIONARY; r++) {
+            if (values[r] != null && !codes.containsKey(values[r])) {
+                codes.put(values[r], codes.size() + 1);
+            }
+        }
+        if (codes.size() <= MAX_DICTIONARY) {
+            String[] dictionary = new String[codes.size() + 1];
+            dictionary[0] = "";
+            for (Map.Entry<String, Integer> code : codes.entrySet()) {
+                dictionary[code.getValue()] = code.getKey();
+            }
+            byte[] rowCodes = new byte[rows];
+            for (int r = 0; r < rows; r++) {
+                rowCodes[r] = values[r] == null ? 0 : (byte) (int) codes.get(values[r]);
+            }
+            return new dictionaryColumn(dictionary, rowCodes);
+        }
+        int[] ends = new int[rows];
+        byte[][] encoded = new byte[rows][];
+        int length = 0;
+        for (int r = 0; r < rows; r++) {
+            encoded[r] = values[r] == null ? new byte[0] : values[r].getBytes(StandardCharsets.UTF_8);
+            length += encoded[r].length;
+            ends[r] = length;
+        }
+        byte[] data = new byte[length];
+        for (int r = 0, at = 0; r < rows; at += encoded[r].length, r++) {
+            System.arraycopy(encoded[r], 0, data, at, encoded[r].length);
+        }
+        return new bytesColumn(data, ends);
+    }
+
+    private void spill(chunk target) throws IOException {
+        if (spill == null) {
+            spillFile = File.createTempFile("pnp-records-", ".spill", spillDir);
+            spillFile.deleteOnExit();
+            spill = new RandomAccessFile(spillFile, "rw");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(target.bytes + 1024, 1 << 26));
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(target.columns.length);
+            for (column c : target.columns) {
+                if (c == null) {
+                    out.writeByte(0);
+                } else {
+                    c.write(out);
+                }
+            }
+        }
+        target.spillOffset = spill.length();
+        target.spillLength = buffer.size();
+        spill.seek(target.spillOffset);
+        spill.write(buffer.toByteArray());
+        target.columns = null;
+        memoryBytes -= target.bytes;
+    }
+
+    private column[] load(chunk target) throws IOException {
+        if (target.columns != null) {
+            return target.columns;
+        }
+        byte[] bytes = new byte[target.spillLength];
+        spill.seek(target.spillOffset);
+        spill.readFully(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            column[] columns = new column[in.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                byte kind = in.readByte();
+                if (kind == dictionaryColumn.KIND) {
+                    columns[i] = dictionaryColumn.read(in);
+                } else if (kind == bytesColumn.KIND) {
+                    columns[i] = bytesColumn.read(in);
+                }
+            }
+            return columns;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        filling = new String[0][];
+        if (spill != null) {
+            spill.close();
+            spill = null;
+            if (!spillFile.delete()) {
+                System.err.println("Warning: Could not delete " + spillFile);
+            }
+        }
+    }
+
+    // Walks the records in the order they were added
+    public final class cursor {
+        private int row = -1;
+        private int chunkIndex = -1;
+        private int chunkRow;
+        private column[] columns;
+        private String[][] open;
+
+        public boolean next() throws IOException {
+            if (row + 1 >= size) {
+                return false;
+            }
+            row++;
+            int index = row / CHUNK_ROWS;
+            chunkRow = row % CHUNK_ROWS;
+            if (index != chunkIndex) {
+                chunkIndex = index;
+                if (index < chunks.size()) {
+                    columns = load(chunks.get(index));
+                    open = null;
+                } else {
+                    columns = null;
+                    open = filling;
+                }
+            }
+            return true;
+        }
+
+        // True for a record with no fields at all
+        public boolean isEmpty() {
+            return emptyRows.get(row);
+        }
+
+        // The record's value of the field, "" when it has none
+        public String get(int ordinal) {
+            if (ordinal < 0) {
+                return "";
+            }
+            if (open != null) {
+                String value = ordinal < open.length && open[ordinal] != null ? open[ordinal][chunkRow] : null;
+                return value == null ? "" : value;
+            }
+            return ordinal < columns.length && columns[ordinal] != null ? columns[ordinal].get(chunkRow) : "";
+        }
+    }
+
+    private static final class chunk {
+        final long bytes;
+        column[] columns;
+        long spillOffset;
+        int spillLength;
+
+        chunk(column[] columns, long bytes) {
+            this.columns = columns;
+            this.bytes = bytes;
+        }
+    }
+
+    private interface column {
+        String get(int row);
+
+        long bytes();
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final class dictionaryColumn implements column {
+        static final byte KIND = 1;
+        final String[] dictionary;
+        final byte[] codes;
+
+        dictionaryColumn(String[] dictionary, byte[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        @Override
+        public String get(int row) {
+            return dictionary[codes[row] & 0xff];
+        }
+
+        @Override
+        public long bytes() {
+            long bytes = codes.length;
+            for (String value : dictionary) {
+                bytes += 40 + 2L * value.length();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(KIND);
+            out.writeShort(dictionary.length);
+            for (String value : dictionary) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            out.writeInt(codes.length);
+            out.write(codes);
+        }
+
+        static dictionaryColumn read(DataInputStream in) throws IOException {
+            String[] dictionary = new String[in.readUnsignedShort()];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] utf8 = new byte[in.readInt()];
+                in.readFully(utf8);
+                dictionary[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+            byte[] codes = new byte[in.readInt()];
+            in.readFully(codes);
+            return new dictionaryColumn(dictionary, codes);
+        }
+    }
+
+    private static final class bytesColumn implements column {
+        static final byte KIND = 2;
+        final byte[] data;
+        final int[] ends;
+
+        bytesColumn(byte[] data, int[] ends) {
+            this.data = data;
+            this.ends = ends;
+        }
+
+        @Override
+        public String get(int row) {
+            int start = row == 0 ? 0 : ends[row - 1];
+            return start == ends[row] ? "" : new String(data, start, ends[row] - start, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long bytes() {
+            return data.length + 4L * ends.length;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(KIND);
+            out.writeInt(ends.length);
+            for (int end : ends) {
+                out.writeInt(end);
+            }
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        static bytesColumn read(DataInputStream in) throws IOException {
+            int[] ends = new int[in.readInt()];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = in.readInt();
+            }
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new bytesColumn(data, ends);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Append-only sink for positional rows, implemented over JDBC (batchInserter) or Jackcess
+public interface rowWriter extends AutoCloseable {
+    void add(Object[] row) throws Exception;
+
+    // Pushes buffered rows to the database and makes them durable
+    void flush() throws SQLException, IOException;
+
+    long getInserted();
+
+    // Highest value of the table's row id column, -1 when the table has none
+    long getLastRowId() throws Exception;
+
+    // Removes previously loaded rows by row id, inclusive; takes effect with the next commit
+    void deleteRows(long firstRowId, long lastRowId) throws Exception;
+
+    // Overwrites the rows whose keyColumns (positions in add()'s rows) match row; returns how many
+    long update(Object[] row, int[] keyColumns) throws Exception;
+
+    // The rows with row ids in the range, inclusive, in add()'s column order
+    List<Object[]> readRows(long firstRowId, long lastRowId) throws Exception;
+
+    // Runs after every commit, once the committed rows are durable; listeners run in the order added
+    void addCommitListener(Runnable listener);
+
+    // Runs for every added row the database refused or rollback() took back, with the row in add()'s
+    // column order
+    void addRejectListener(Consumer<Object[]> listener);
+
+    // With deferred commits, reaching the commit interval no longer commits inside add(); the
+    // commit waits for the next checkpoint(), so one never splits a unit such as an input file
+    void setDeferCommits(boolean defer);
+
+    // Commits if the commit interval has been reached since the last commit
+    void checkpoint() throws Exception;
+
+    // Takes back the rows added, and the deletes and updates made, since the last checkpoint(), e.g.
+    // those of an input file that failed part way; with deferred commits none of them is committed
+    // yet. Reject listeners run for the rows, latest first.
+    void rollback() throws Exception;
+
+    // For a load that failed: drops the rows added since the last commit, and close() then closes
+    // without committing, so the output (and its manifest) stays at the last commit
+    void abort();
+
+    long getFailed();
+
+    String summary();
+
+    @Override
+    void close() throws SQLException, IOException;
+}
@@ -0,0 +1,237 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only record of the input files already loaded into an output MDB/CSV.
+// "F" lines describe files, and only count once a following "C" line confirms the
+// commit they were part of, so an interrupted run resumes from its last commit.
+//
+//   F <size> <mtime> <sha256> <rows> <firstRowId> <lastRowId> <path>
+//   C <mark> <lastRowId>
+//
+// The mark is the output's high-water mark at that commit: the byte length of a CSV,
+// or the highest row id of an MDB table. Row ids are -1 when they could not be
+// attributed exactly (e.g. rows were rejected within that commit).
+public class runManifest {
+    private final Path path;
+    private final Map<String, entry> entries = new LinkedHashMap<>();
+    private final List<entry> pending = new ArrayList<>();
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private boolean committed;
+    private long mark;
+    private long lastRowId;
+    private long pendingRows;
+
+    private runManifest(Path path) {
+        this.path = path;
+    }
+
+    // The manifest of an output file lives next to it as <output>.manifest
+    public static runManifest load(String outputFile) {
+        runManifest manifest = new runManifest(Paths.get(outputFile + ".manifest"));
+        if (!Files.exists(manifest.path)) {
+            return manifest;
+        }
+
+        List<entry> group = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest.path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 8);
+                if (parts[0].equals("F") && parts.length == 8) {
+                    group.add(new entry(parts[7], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3],
+                            Long.parseLong(parts[4]), Long.parseLong(parts[5]), Long.parseLong(parts[6])));
+                } else if (parts[0].equals("C") && parts.length == 3) {
+                    for (entry e : group) {
+                        manifest.entries.put(e.path, e);
+                    }
+                    group.clear();
+                    manifest.committed = true;
+                    manifest.mark = Long.parseLong(parts[1]);
+                    manifest.lastRowId = Long.parseLong(parts[2]);
+                } else {
+                    // A torn line can only be the tail of an interrupted write
+                    break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Warning: Could not fully read manifest " + manifest.path + ": " + e.getMessage());
+        }
+        if (!group.isEmpty()) {
+            System.out.println("Discarding " + group.size() + " uncommitted manifest entries");
+        }
+        return manifest;
+    }
+
+    // True once some earlier run committed into the output
+    public boolean hasCommits() {
+        return committed;
+    }
+
+    public long getMark() {
+        return mark;
+    }
+
+    public long getLastRowId() {
+        return lastRowId;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Drops everything, for a run that starts the output from scratch
+    public void reset() throws IOException {
+        Files.deleteIfExists(path);
+        entries.clear();
+        pending.clear();
+        committed = false;
+        mark = 0;
+        lastRowId = 0;
+        pendingRows = 0;
+    }
+
+    // Row id the output had before this run's first insert
+    public void begin(long lastRowId) {
+        if (!committed) {
+            this.lastRowId = lastRowId;
+        }
+    }
+
+    public boolean isUnchanged(File file) throws IOException {
+        entry previous = entries.get(key(file));
+        if (previous == null || previous.size != file.length()) {
+            return false;
+        }
+        return previous.modified == file.lastModified() || previous.hash.equals(hash(file));
+    }
+
+    // Files that are new or changed since they were last committed, in their original order
+    public List<File> selectPending(List<File> files) throws IOException {
+        List<File> selected = new ArrayList<>();
+        for (File file : files) {
+            if (!isUnchanged(file)) {
+                selected.add(file);
+            }
+        }
+        System.out.println("Incremental run: " + selected.size() + " new or changed files, "
+                + (files.size() - selected.size()) + " already loaded");
+        return selected;
+    }
+
+    // The committed entry for a file that has changed since, or null
+    public entry previous(File file) {
+        return entries.get(key(file));
+    }
+
+    // Computes the content hash ahead of stage(); safe to call from the parse workers
+    public void prepare(File file) throws IOException {
+        hash(file);
+    }
+
+    // Called once the file's rows have been handed to the writer
+    public void stage(File file, long rows) throws IOException {
+        pending.add(new entry(key(file), file.length(), file.lastModified(), hash(file), rows, -1, -1));
+        pendingRows += rows;
+    }
+
+    // Called after the output commits; records every staged file as loaded
+    public void committed(long mark, long lastRowId) throws IOException {
+        if (pending.isEmpty() && committed && mark == this.mark && lastRowId == this.lastRowId) {
+            return;
+        }
+        boolean exact = lastRowId - this.lastRowId == pendingRows;
+        long nextId = this.lastRowId + 1;
+
+        StringBuilder lines = new StringBuilder();
+        for (entry e : pending) {
+            e.firstRowId = exact && e.rows > 0 ? nextId : -1;
+            e.lastRowId = exact && e.rows > 0 ? nextId + e.rows - 1 : -1;
+            nextId += e.rows;
+            lines.append("F\t").append(e.size).append('\t').append(e.modified).append('\t').append(e.hash)
+                    .append('\t').append(e.rows).append('\t').append(e.firstRowId).append('\t').append(e.lastRowId).append('\t').append(e.path).append('\n');
+        }
+        lines.append("C\t").append(mark).append('\t').append(lastRowId).append('\n');
+
+        try (FileOutputStream out = new FileOutputStream(path.toFile(), true)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        for (entry e : pending) {
+            entries.put(e.path, e);
+            hashes.remove(e.path);
+        }
+        pending.clear();
+        pendingRows = 0;
+        committed = true;
+        this.mark = mark;
+        this.lastRowId = lastRowId;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath();
+    }
+
+    private String hash(File file) throws IOException {
+        String cached = hashes.get(key(file));
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream input = new FileInputStream(file)) {
+                int n;
+                while ((n = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            hashes.put(key(file), hex.toString());
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static class entry {
+        final String path;
+        final long size;
+        final long modified;
+        final String hash;
+        final long rows;
+        long firstRowId;
+        long lastRowId;
+
+        entry(String path, long size, long modified, String hash, long rows, long firstRowId, long lastRowId) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.rows = rows;
+            this.firstRowId = firstRowId;
+            this.lastRowId = lastRowId;
+        }
+
+        public long getFirstRowId() {
+            return firstRowId;
+        }
+
+        public long getLastRowId() {
+            return lastRowId;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and per-stage latency histograms. Recording is a couple of LongAdder
+// increments, so the stages can be timed from any worker thread without contention.
+//
+// Per-file and per-record console output goes through DEBUG, a constant the JIT folds away when
+// -Dpnp.debug=true is not set: guard it as "if (runMetrics.DEBUG) System.out.println(...)".
+//
+// File and row counts belong to a scope: the process, or one job of the job server (beginScope),
+// which every thread the job starts inherits. Stage latencies are always process-wide.
+public class runMetrics {
+    public static final boolean DEBUG = Boolean.getBoolean("pnp.debug");
+
+    public static final stage SCAN = new stage("scan");
+    public static final stage PARSE = new stage("parse");
+    public static final stage MAP = new stage("map");
+    public static final stage ROW_BUILD = new stage("row_build");
+    public static final stage INSERT = new stage("insert");
+    public static final stage COMMIT = new stage("commit");
+    private static final stage[] STAGES = { SCAN, PARSE, MAP, ROW_BUILD, INSERT, COMMIT };
+
+    private static final counters PROCESS = new counters();
+    private static final InheritableThreadLocal<counters> SCOPE = new InheritableThreadLocal<>();
+
+    private runMetrics() {
+    }
+
+    private static counters current() {
+        counters scope = SCOPE.get();
+        return scope != null ? scope : PROCESS;
+    }
+
+    // Gives the calling thread, and the threads it starts from now on, counts of their own
+    public static void beginScope() {
+        SCOPE.set(new counters());
+    }
+
+    public static void endScope() {
+        stopProgress();
+        SCOPE.remove();
+    }
+
+    public static void fileDone() {
+        current().filesDone.increment();
+    }
+
+    public static void rowsWritten(long rows) {
+        current().rowsWritten.add(rows);
+    }
+
+    public static void rowFailed() {
+        current().rowsFailed.increment();
+    }
+
+    // Adds to the number of files the progress line counts down to
+    public static void expectFiles(long files) {
+        current().filesExpected.add(files);
+    }
+
+    // Same for a list of files; one still being scanned adds its files as they are found
+    public static void expectFiles(List<File> files) {
+        if (files instanceof inputFiles) {
+            counters scope = current();
+            ((inputFiles) files).onFound(found -> scope.filesExpected.add(found));
+        } else {
+            expectFiles(files.size());
+        }
+    }
+
+    public static long getFiles() {
+        return current().filesDone.sum();
+    }
+
+    public static long getRows() {
+        return current().rowsWritten.sum();
+    }
+
+    public static long getFailedRows() {
+        return current().rowsFailed.sum();
+    }
+
+    // An error that leaves the run's output incomplete, such as a failed write, as opposed to one bad row
+    public static void outputFailed() {
+        current().outputErrors.increment();
+    }
+
+    public static long getOutputErrors() {
+        return current().outputErrors.sum();
+    }
+
+    // Prints a progress/ETA line every Progress_interval seconds (default 10, 0 turns it off)
+    public static synchronized void startProgress(Properties config) {
+        long interval = Long.parseLong(config.getProperty("Progress_interval", "10").trim());
+        counters scope = current();
+        if (interval <= 0 || scope.progress != null) {
+            return;
+        }
+        scope.progress = Executors.newSingleThreadScheduledExecutor(qcaPipeline.namedThreads("progress"));
+        scope.progress.scheduleAtFixedRate(() -> System.out.println(progressLine()), interval, interval, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopProgress() {
+        counters scope = current();
+        if (scope.progress != null) {
+            scope.progress.shutdownNow();
+            scope.progress = null;
+        }
+    }
+
+    static String progressLine() {
+        counters scope = current();
+        double seconds = elapsedSeconds();
+        long files = scope.filesDone.sum();
+        long expected = scope.filesExpected.sum();
+        double filesPerSec = files / seconds;
+        StringBuilder line = new StringBuilder(String.format("Progress: %d", files));
+        if (expected > 0) {
+            line.append(String.format("/%d files (%.0f%%)", expected, 100.0 * files / expected));
+        } else {
+            line.append(" files");
+        }
+        line.append(String.format(", %.1f files/sec, %.1f rows/sec", filesPerSec, scope.rowsWritten.sum() / seconds));
+        if (expected > files && filesPerSec > 0) {
+            line.append(String.format(", ETA %.0fs", (expected - files) / filesPerSec));
+        }
+        return line.toString();
+    }
+
+    // Prints the end-of-run summary and writes <Metrics_path>.json and <Metrics_path>.prom,
+    // by default pnp-metrics.* under Output_path
+    public static void report(Properties config) {
+        stopProgress();
+        counters scope = current();
+        double seconds = elapsedSeconds();
+        System.out.println(String.format("Run metrics: %d files, %d rows (%d failed) in %.1fs, %.1f files/sec, %.1f rows/sec",
+                scope.filesDone.sum(), scope.rowsWritten.sum(), scope.rowsFailed.sum(), seconds,
+                scope.filesDone.sum() / seconds, scope.rowsWritten.sum() / seconds));
+        for (stage s : STAGES) {
+            if (s.count.sum() > 0) {
+                System.out.println(String.format("  %-10s %9d calls %10.1f ms total  p50 %s  p99 %s  max %s", s.name,
+                        s.count.sum(), s.totalNanos.sum() / 1e6, micros(s.percentile(0.5)), micros(s.percentile(0.99)),
+                        micros(s.maxNanos.get() / 1000)));
+            }
+        }
+        writeReport(config);
+    }
+
+    // Rewrites the report files without printing, e.g. after every batch of a long-running watch
+    public static void writeReport(Properties config) {
+        double seconds = elapsedSeconds();
+        String base = config.getProperty("Metrics_path");
+        if (base == null || base.trim().isEmpty()) {
+            base = new File(config.getProperty("Output_path", "."), "pnp-metrics").getPath();
+        }
+        try {
+            write(Paths.get(base.trim() + ".json"), json(seconds));
+            write(Paths.get(base.trim() + ".prom"), prometheus(seconds));
+        } catch (IOException e) {
+            System.err.println("Error writing metrics report: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static String micros(long micros) {
+        return micros < 1000 ? micros + "us" : String.format("%.1fms", micros / 1000.0);
+    }
+
+    public static double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - current().startNanos) / 1e9);
+    }
+
+    static String json(double seconds) {
+        counters scope = current();
+        LongAdder filesDone = scope.filesDone;
+        LongAdder rowsWritten = scope.rowsWritten;
+        LongAdder rowsFailed = scope.rowsFailed;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"elapsedSeconds\": ").append(String.format(Locale.ROOT, "%.3f", seconds)).append(",\n");
+        json.append("  \"files\": ").append(filesDone.sum()).append(",\n");
+        json.append("  \"rows\": ").append(rowsWritten.sum()).append(",\n");
+        json.append("  \"failedRows\": ").append(rowsFailed.sum()).append(",\n");
+        json.append("  \"filesPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", filesDone.sum() / seconds)).append(",\n");
+        json.append("  \"rowsPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", rowsWritten.sum() / seconds)).append(",\n");
+        json.append("  \"stages\": {");
+        for (int i = 0; i < STAGES.length; i++) {
+            stage s = STAGES[i];
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    \"").append(s.name).append("\": {\"count\": ").append(s.count.sum())
+                    .append(", \"totalMillis\": ").append(String.format(Locale.ROOT, "%.3f", s.totalNanos.sum() / 1e6))
+                    .append(", \"p50Micros\": ").append(s.percentile(0.5))
+                    .append(", \"p95Micros\": ").append(s.percentile(0.95))
+                    .append(", \"p99Micros\": ").append(s.percentile(0.99))
+                    .append(", \"maxMicros\": ").append(s.maxNanos.get() / 1000).append("}");
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    // Prometheus text exposition format, e.g. for the node exporter's textfile collector
+    static String prometheus(double seconds) {
+        counters scope = current();
+        LongAdder filesDone = scope.filesDone;
+        LongAdder rowsWritten = scope.rowsWritten;
+        LongAdder rowsFailed = scope.rowsFailed;
+        StringBuilder prom = new StringBuilder();
+        prom.append("# HELP pnp_files_total QCA files processed.\n# TYPE pnp_files_total counter\n");
+        prom.append("pnp_files_total ").append(filesDone.sum()).append('\n');
+        prom.append("# HELP pnp_rows_total Rows written to the output.\n# TYPE pnp_rows_total counter\n");
+        prom.append("pnp_rows_total ").append(rowsWritten.sum()).append('\n');
+        prom.append("# HELP pnp_rows_failed_total Rows rejected by the output.\n# TYPE pnp_rows_failed_total counter\n");
+        prom.append("pnp_rows_failed_total ").append(rowsFailed.sum()).append('\n');
+        prom.append("# HELP pnp_elapsed_seconds Time since the run started.\n# TYPE pnp_elapsed_seconds gauge\n");
+        prom.append("pnp_elapsed_seconds ").append(String.format(Locale.ROOT, "%.3f", seconds)).append('\n');
+        prom.append("# HELP pnp_stage_seconds Latency of each pipeline stage.\n# TYPE pnp_stage_seconds histogram\n");
+        for (stage s : STAGES) {
+            // Buckets up to the highest populated one; +Inf covers the rest
+            int top = 0;
+            for (int b = 0; b < s.buckets.length; b++) {
+                if (s.buckets[b].sum() > 0) {
+                    top = b;
+                }
+            }
+            long cumulative = 0;
+            for (int b = 0; b <= top; b++) {
+                cumulative += s.buckets[b].sum();
+                prom.append("pnp_stage_seconds_bucket{stage=\"").append(s.name).append("\",le=\"")
+                        .append(String.format(Locale.ROOT, "%.6f", (1L << b) / 1e6)).append("\"} ").append(cumulative).append('\n');
+            }
+            prom.append("pnp_stage_seconds_bucket{stage=\"").append(s.name).append("\",le=\"+Inf\"} ").append(s.count.sum()).append('\n');
+            prom.append("pnp_stage_seconds_sum{stage=\"").append(s.name).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.6f", s.totalNanos.sum() / 1e9)).append('\n');
+            prom.append("pnp_stage_seconds_count{stage=\"").append(s.name).append("\"} ").append(s.count.sum()).append('\n');
+        }
+        return prom.toString();
+    }
+
+    // Replaces the report in one step so a scraper never reads half a file
+    private static void write(Path path, String content) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Paths.get(path + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static final class counters {
+        final LongAdder filesDone = new LongAdder();
+        final LongAdder rowsWritten = new LongAdder();
+        final LongAdder rowsFailed = new LongAdder();
+        final LongAdder outputErrors = new LongAdder();
+        final LongAdder filesExpected = new LongAdder();
+        final long startNanos = System.nanoTime();
+        ScheduledExecutorService progress;
+    }
+
+    // Latency histogram with power-of-two microsecond buckets: bucket b counts durations below 2^b us
+    public static class stage {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[40];
+
+        stage(String name) {
+            this.name = name;
+            for (int b = 0; b < buckets.length; b++) {
+                buckets[b] = new LongAdder();
+            }
+        }
+
+        // Usage: long start = System.nanoTime(); ...; runMetrics.PARSE.record(start);
+        public void record(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public void recordNanos(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, buckets.length - 1)].increment();
+        }
+
+        // Upper bound, in microseconds, of the bucket holding the given quantile (at most the maximum seen)
+        long percentile(double quantile) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b].sum();
+                if (seen >= target) {
+                    return Math.min(1L << b, maxNanos.get() / 1000);
+                }
+            }
+            return maxNanos.get() / 1000;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import com.healthmarketscience.jackcess.Column;
+import com.healthmarketscience.jackcess.Database;
+import com.healthmarketscience.jackcess.DatabaseBuilder;
+import com.healthmarketscience.jackcess.Row;
+import com.healthmarketscience.jackcess.Table;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Binary sidecar holding the tblFields rows of a schema MDB. A warm run reads the sidecar
+// instead of opening the MDB; a cold or stale one rebuilds it with a read-only Jackcess reader.
+// Within one process (e.g. the job server) the fields are also kept in memory between runs.
+public class schemaCache {
+    private static final int MAGIC = 0x51434146;
+    private static final int VERSION = 1;
+    // By canonical schema path; an entry holds while the schema's size and timestamp are unchanged
+    private static final Map<String, cacheEntry> loaded = new ConcurrentHashMap<>();
+
+    private schemaCache() {
+    }
+
+    // Forgets the fields kept in memory, so the next load reads the sidecar or the MDB again
+    static void clearMemo() {
+        loaded.clear();
+    }
+
+    // Each entry is {FieldNo (normalized), FieldName, DocType or null}, in tblFields order
+    public static List<String[]> loadFields(String schemaMdbPath, String cachePath) throws IOException {
+        File schemaFile = new File(schemaMdbPath);
+        if (!schemaFile.isFile()) {
+            throw new FileNotFoundException("Schema MDB not found: " + schemaMdbPath);
+        }
+        String canonicalPath = schemaFile.getCanonicalPath();
+        long size = schemaFile.length();
+        long modified = schemaFile.lastModified();
+        cacheEntry memo = loaded.get(canonicalPath);
+        if (memo != null && memo.size == size && memo.modified == modified) {
+            return memo.fields;
+        }
+        List<String[]> fields = Collections.unmodifiableList(loadFields(schemaFile, canonicalPath, size, modified,
+                cachePath));
+        cacheEntry entry = new cacheEntry();
+        entry.path = canonicalPath;
+        entry.size = size;
+        entry.modified = modified;
+        entry.fields = fields;
+        loaded.put(canonicalPath, entry);
+        return fields;
+    }
+
+    private static List<String[]> loadFields(File schemaFile, String canonicalPath, long size, long modified,
+            String cachePath) throws IOException {
+        String schemaMdbPath = schemaFile.getPath();
+        File cacheFile = new File(cachePath == null || cachePath.trim().isEmpty() ? schemaMdbPath + ".fields.cache" : cachePath.trim());
+
+        cacheEntry cached = read(cacheFile);
+        if (cached != null && cached.path.equals(canonicalPath) && cached.size == size) {
+            if (cached.modified == modified) {
+                return cached.fields;
+            }
+            // Touched or copied but possibly unchanged: the content hash decides
+            byte[] hash = hash(schemaFile);
+            if (Arrays.equals(hash, cached.hash)) {
+                write(cacheFile, canonicalPath, size, modified, hash, cached.fields);
+                return cached.fields;
+            }
+        }
+
+        System.out.println("Building schema cache from " + schemaMdbPath);
+        List<String[]> fields = readTblFields(schemaFile);
+        write(cacheFile, canonicalPath, size, modified, hash(schemaFile), fields);
+        return fields;
+    }
+
+    private static List<String[]> readTblFields(File schemaFile) throws IOException {
+        List<String[]> fields = new ArrayList<>();
+        try (Database db = new DatabaseBuilder(schemaFile).setReadOnly(true).open()) {
+            Table table = db.getTable("tblFields");
+            if (table == null) {
+                throw new IOException("tblFields not found in " + schemaFile);
+            }
+            String fieldNoColumn = table.getColumn("FieldNo").getName();
+            String fieldNameColumn = table.getColumn("FieldName").getName();
+            String docTypeColumn = columnName(table, "DocType");
+
+            for (Row row : table) {
+                Object fieldNo = row.get(fieldNoColumn);
+                if (fieldNo == null) {
+                    continue;
+                }
+                Object fieldName = row.get(fieldNameColumn);
+                Object docType = docTypeColumn == null ? null : row.get(docTypeColumn);
+                fields.add(new String[] {
+                    fieldNo.toString().replace(".0", "").trim(),
+                    fieldName == null ? null : fieldName.toString(),
+                    docType == null ? null : docType.toString()
+                });
+            }
+        }
+        return fields;
+    }
+
+    private static String columnName(Table table, String name) {
+        try {
+            Column column = table.getColumn(name);
+            return column == null ? null : column.getName();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream input = new FileInputStream(file)) {
+                int n;
+                while ((n = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static cacheEntry read(File cacheFile) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            cacheEntry entry = new cacheEntry();
+            entry.path = in.readUTF();
+            entry.size = in.readLong();
+            entry.modified = in.readLong();
+            entry.hash = new byte[in.readUnsignedByte()];
+            in.readFully(entry.hash);
+            int count = in.readInt();
+            entry.fields = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String[] field = new String[3];
+                for (int k = 0; k < 3; k++) {
+                    field[k] = in.readBoolean() ? in.readUTF() : null;
+                }
+                entry.fields.add(field);
+            }
+            return entry;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable schema cache " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Written to a temporary file and moved into place, so a crash never leaves a half-written cache
+    private static void write(File cacheFile, String path, long size, long modified, byte[] hash, List<String[]> fields) {
+        Path target = cacheFile.toPath().toAbsolutePath();
+        Path temp = Paths.get(target + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(path);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeByte(hash.length);
+                out.write(hash);
+                out.writeInt(fields.size());
+                for (String[] field : fields) {
+                    for (String value : field) {
+                        out.writeBoolean(value != null);
+                        if (value != null) {
+                            out.writeUTF(value);
+                        }
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not write schema cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static class cacheEntry {
+        String path;
+        long size;
+        long modified;
+        byte[] hash;
+        List<String[]> fields;
+    }
+}
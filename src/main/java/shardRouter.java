@@ -0,0 +1,287 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Splits the output into shards by a key taken from each row, and starts a new shard file once one
+// holds Shard_max_rows rows or Shard_max_mb megabytes. Every key gets its own writer thread and
+// output connection, so shards load in parallel; the rows of one key keep their input order.
+//
+//   Shard_key=none          one output, only split by the size limits
+//   Shard_key=prefix        the input file name up to the first "-" (the dealer prefix)
+//   Shard_key=doc_type      the record's document type (the value of field 1)
+//   Shard_key=field:<name>  the value of any mapped field, e.g. field:Dealer Code
+//
+// The size limit is checked every Commit_interval rows, after a commit, so a shard can pass it by
+// up to that many rows. A key with more than Shard_max_keys distinct values (default 64) stops the
+// load rather than opening a thread and connection for each.
+public class shardRouter implements AutoCloseable {
+    private static final Object END = new Object();
+
+    // Opens the writer for shard file number sequence (1, 2, ...) of a key ("" with Shard_key=none)
+    public interface shardOpener {
+        shardWriter open(String key, int sequence) throws Exception;
+    }
+
+    public interface shardWriter extends AutoCloseable {
+        void write(Map<String, String> row) throws Exception;
+
+        // Commits what was written so far and returns the size of the shard file in bytes
+        long commit() throws Exception;
+
+        @Override
+        void close() throws SQLException, IOException;
+    }
+
+    private final String keyType;
+    private final String keyField;
+    private final long maxRows;
+    private final long maxBytes;
+    private final int checkInterval;
+    private final int bufferSize;
+    private final int maxKeys;
+    private final shardOpener opener;
+    // Only touched by the thread calling route(). Keys that differ only in case share a shard, as
+    // their file names would name the same file on Windows.
+    private final Map<String, shard> shards = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public shardRouter(Properties config, fieldLookupIndex fieldIndex, shardOpener opener) {
+        String key = config.getProperty("Shard_key", "none").trim();
+        if (key.toLowerCase().startsWith("field:")) {
+            this.keyType = "field";
+            this.keyField = key.substring("field:".length()).trim();
+        } else {
+            this.keyType = key.toLowerCase();
+            // The document type is whatever field 1 is mapped to
+            int docTypeField = fieldIndex.lookup(fieldIndex.docTypeOrdinal(""), "1");
+            this.keyField = keyType.equals("doc_type") && docTypeField >= 0 ? fieldIndex.name(docTypeField) : null;
+            if (!keyType.equals("none") && !keyType.equals("prefix") && !keyType.equals("doc_type")) {
+                throw new IllegalArgumentException("Unknown Shard_key '" + key + "'");
+            }
+            if (keyType.equals("doc_type") && keyField == null) {
+                throw new IllegalArgumentException("Shard_key=doc_type needs field 1 in the schema");
+            }
+        }
+        if (keyField != null && !Arrays.asList(fieldIndex.names()).contains(keyField)) {
+            System.err.println("Warning: Shard_key field '" + keyField + "' is not in the schema; all rows go to shard none");
+        }
+        this.maxRows = Long.parseLong(config.getProperty("Shard_max_rows", "0").trim());
+        this.maxBytes = Long.parseLong(config.getProperty("Shard_max_mb", "0").trim()) * 1024 * 1024;
+        this.checkInterval = Math.max(1, Integer.parseInt(config.getProperty("Commit_interval", "5000").trim()));
+        this.bufferSize = Math.max(1, Integer.parseInt(config.getProperty("Row_buffer", "256").trim()));
+        this.maxKeys = Integer.parseInt(config.getProperty("Shard_max_keys", "64").trim());
+        this.opener = opener;
+    }
+
+    // Whether config asks for sharded output at all
+    public static boolean enabled(Properties config) {
+        return !config.getProperty("Shard_key", "none").trim().equalsIgnoreCase("none")
+                || Long.parseLong(config.getProperty("Shard_max_rows", "0").trim()) > 0
+                || Long.parseLong(config.getProperty("Shard_max_mb", "0").trim()) > 0;
+    }
+
+    // Streams the files' rows through the pipeline and into their shards
+    public void load(qcaPipeline pipeline, List<File> files, Function<File, Iterator<Map<String, String>>> source) {
+        runMetrics.expectFiles(files);
+        pipeline.stream(files, source, bufferSize, (qcaFile, row) -> {
+            if (row.isEmpty()) {
+                if (runMetrics.DEBUG) System.out.println("No field values to insert - skipping record");
+                return;
+            }
+            route(keyOf(qcaFile, row), row);
+        }, (qcaFile, rows) -> {
+        }, qcaFile -> {
+        });
+    }
+
+    String keyOf(File qcaFile, Map<String, String> row) {
+        switch (keyType) {
+            case "none":
+                return "";
+            case "prefix":
+                return safeName(qcaFile.getName().split("-")[0]);
+            default:
+                return safeName(row.getOrDefault(keyField, ""));
+        }
+    }
+
+    // Keys become part of file names; rows with no key value go to "none"
+    static String safeName(String key) {
+        String safe = key.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+        return safe.isEmpty() ? "none" : safe;
+    }
+
+    public void route(String key, Map<String, String> row) {
+        shard target = shards.get(key);
+        if (target == null) {
+            if (shards.size() >= maxKeys) {
+                throw new IllegalStateException("Shard_key gives more than " + maxKeys + " shards (Shard_max_keys)");
+            }
+            target = new shard(key);
+            shards.put(key, target);
+            target.thread.start();
+        }
+        try {
+            while (!target.queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                target.checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while routing to shard " + key, e);
+        }
+        target.checkFailure();
+    }
+
+    // Lets every shard drain and close; throws if any of them failed
+    @Override
+    public void close() {
+        for (shard s : shards.values()) {
+            try {
+                while (s.thread.isAlive() && !s.queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    // The shard is still writing its backlog
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<String> failed = new ArrayList<>();
+        for (shard s : shards.values()) {
+            try {
+                s.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (s.failure != null) {
+                failed.add(s.key.isEmpty() ? "output" : s.key);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Shards failed: " + String.join(", ", failed));
+        }
+    }
+
+    // A shardWriter over a database rowWriter; toRow turns a record into the writer's column order
+    public static shardWriter forRows(rowWriter writer, Path file, Function<Map<String, String>, Object[]> toRow) {
+        return new shardWriter() {
+            @Override
+            public void write(Map<String, String> row) throws Exception {
+                long start = System.nanoTime();
+                Object[] values = toRow.apply(row);
+                long insertStart = System.nanoTime();
+                runMetrics.ROW_BUILD.recordNanos(insertStart - start);
+                writer.add(values);
+                runMetrics.INSERT.record(insertStart);
+            }
+
+            @Override
+            public long commit() throws Exception {
+                writer.flush();
+                return Files.size(file);
+            }
+
+            @Override
+            public void close() throws SQLException, IOException {
+                try {
+                    writer.flush();
+                    System.out.println(file.getFileName() + ": " + writer.summary());
+                } finally {
+                    writer.close();
+                }
+            }
+        };
+    }
+
+    public static shardWriter forCsv(csvRecordWriter writer, Path file) {
+        return new shardWriter() {
+            @Override
+            public void write(Map<String, String> row) throws Exception {
+                long start = System.nanoTime();
+                writer.write(row);
+                runMetrics.INSERT.record(start);
+            }
+
+            @Override
+            public long commit() throws Exception {
+                return writer.flush();
+            }
+
+            @Override
+            public void close() throws SQLException, IOException {
+                writer.close();
+                System.out.println("CSV file created at: " + file + " (" + writer.getRows() + " records)");
+            }
+        };
+    }
+
+    private final class shard implements Runnable {
+        final String key;
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(bufferSize);
+        final Thread thread;
+        volatile Throwable failure;
+
+        shard(String key) {
+            this.key = key;
+            this.thread = new Thread(this, "shard-" + (key.isEmpty() ? "output" : key));
+        }
+
+        void checkFailure() {
+            if (failure != null) {
+                throw new IllegalStateException("Shard " + key + " failed: " + failure.getMessage(), failure);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            shardWriter writer = null;
+            int sequence = 1;
+            long rows = 0;
+            try {
+                while (true) {
+                    Object item = queue.take();
+                    if (item == END) {
+                        break;
+                    }
+                    // Opened with the first row, so a rollover on the last row leaves no empty shard
+                    if (writer == null) {
+                        writer = opener.open(key, sequence);
+                    }
+                    writer.write((Map<String, String>) item);
+                    rows++;
+                    if ((maxRows > 0 && rows >= maxRows)
+                            || (maxBytes > 0 && rows % checkInterval == 0 && writer.commit() >= maxBytes)) {
+                        writer.close();
+                        writer = null;
+                        sequence++;
+                        rows = 0;
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e;
+                System.err.println("Error writing shard " + (key.isEmpty() ? "output" : key) + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (Exception e) {
+                        System.err.println("Error closing shard " + key + ": " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
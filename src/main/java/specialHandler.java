@@ -1,21 +1,33 @@
 import java.io.*;
 import java.sql.*;
 import java.util.*;
-import java.text.*;
-import javax.xml.parsers.*;
-import org.w3c.dom.*;
 import java.nio.file.*;
+import java.util.function.Function;
 
 public class specialHandler {
 
     public static void main(String[] args) {
-        Properties config = loadConfig("config/config.properties");
+        run(loadConfig("config/config.properties"));
+    }
 
+    // One conversion of Input_path into a copy of Template_MDB with the given config; false when an
+    // error left the output incomplete
+    public static boolean run(Properties config) {
+        long errors = runMetrics.getOutputErrors();
+        qcaParser parser = qcaSpool.wrap(config, qcaParser.fromConfig(config));
+        try {
+            convert(config, parser);
+        } finally {
+            qcaSpool.finish(parser);
+        }
+        return runMetrics.getOutputErrors() == errors;
+    }
+
+    private static void convert(Properties config, qcaParser parser) {
         String inputPath = config.getProperty("Input_path");
         String templateMdbPath = config.getProperty("Template_MDB");
         String schemaMdbPath = config.getProperty("Schema_MDB");
         String outputMdbPath = config.getProperty("Output_MDB");
-        String inputExt = config.getProperty("input_ext", "QCA");
         String outputPath = config.getProperty("Output_path");
 
         // Print paths for verification
@@ -27,10 +39,19 @@ public class specialHandler {
 
         List<String> docTypes = Arrays.asList("SI", "CSR", "SBR");
 
-        Map<String, String> fieldNumberToName = getFieldNumberToNameMapping(schemaMdbPath, docTypes);
+        Map<String, String> fieldNumberToName = getFieldNumberToNameMapping(schemaMdbPath, config.getProperty("Schema_cache"), docTypes);
+        fieldLookupIndex fieldIndex = fieldLookupIndex.compile(fieldNumberToName);
+        liaisonPlan plan;
+        try {
+            plan = liaisonPlan.compile(config, fieldIndex);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error in Liaison column spec: " + e.getMessage());
+            runMetrics.outputFailed();
+            return;
+        }
 
-        File inputDir = new File(inputPath);
-        File[] qcaFiles = inputDir.listFiles((dir, name) -> name.toLowerCase().endsWith("." + inputExt.toLowerCase()));
+        // Found in the background; processing starts with the first file
+        List<File> qcaFiles = inputFiles.scan(config, true);
 
         //create an output directory if given directory is non existent
         try{
@@ -41,6 +62,15 @@ public class specialHandler {
             System.err.println("Error creating output directory: " + e.getMessage());
             e.printStackTrace();
         }
+        // Incremental runs append to the previous output and skip files its manifest lists as loaded
+        boolean incremental = Boolean.parseBoolean(config.getProperty("Incremental", "false").trim());
+        runManifest manifest = null;
+        boolean sharded = shardRouter.enabled(config);
+        if (sharded && incremental) {
+            System.err.println("Warning: Incremental is not supported with sharded output; the shards are rewritten");
+            incremental = false;
+        }
+
         // Copy template MDB to output location
         try {
             // Get the filename from the Output_MDB path
@@ -48,39 +78,110 @@ public class specialHandler {
             
             // Combine Output_path with the filename
             Path fullOutputPath = Paths.get(outputPath, outputFileName);
-            
-            // Copy template MDB to output location
-            Files.copy(Paths.get(templateMdbPath), fullOutputPath, 
-                      StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("Template database copied from: " + templateMdbPath);
-            System.out.println("Template database copied to: " + fullOutputPath);
+
+            if (incremental) {
+                manifest = runManifest.load(fullOutputPath.toString());
+            }
+            // Shards get their own copies of the template as they are opened
+            if (!sharded) {
+                prepareOutputMdb(templateMdbPath, fullOutputPath, manifest);
+            }
             
             // Update outputMdbPath for later use
             outputMdbPath = fullOutputPath.toString();
         } catch (IOException e) {
             System.err.println("Error copying template database: " + e.getMessage());
+            runMetrics.outputFailed();
             System.err.println("Template path: " + templateMdbPath);
             System.err.println("Output path: " + outputMdbPath);
             e.printStackTrace();
             return;
         }
 
-        if (qcaFiles != null && qcaFiles.length > 0) {
-            System.out.println("Found " + qcaFiles.length + " " + inputExt + " files");
-            for (File qcaFile : qcaFiles) {
-                System.out.println("Processing file: " + qcaFile.getName());
-
-                Map<String, String> fieldValues = extractFieldValuesFromXml(qcaFile, fieldNumberToName);
-
-                System.out.println("Extracted Field Values: " + fieldValues);
-
-                insertValuesIntoOutputMdb(outputMdbPath, fieldValues);
+        if (!qcaFiles.isEmpty()) {
+            String liaisonMdbPath = outputMdbPath;
+            qcaPipeline pipeline = qcaPipeline.fromConfig(config);
+            String loadMode = config.getProperty("Load_mode", "bulk").toLowerCase().trim();
+            String granularity = qcaRowIterator.granularity(config);
+            int rowBuffer = Integer.parseInt(config.getProperty("Row_buffer", "256").trim());
+            runMetrics.startProgress(config);
+
+            // Incremental runs need the bulk load's commits to keep their manifest
+            boolean single = loadMode.equals("single") && !sharded;
+            if (single && manifest != null) {
+                System.err.println("Warning: Load_mode=single is ignored for incremental runs; loading in bulk");
+                single = false;
+            }
+            if (!config.getProperty("Dedup_keys", "").trim().isEmpty() && (sharded || single)) {
+                System.err.println("Warning: Dedup_keys only applies to bulk loads into one output; duplicates are not checked");
             }
+            if (sharded) {
+                writeShards(config, plan, pipeline, qcaFiles, parser, fieldIndex, granularity,
+                        templateMdbPath, liaisonMdbPath);
+            } else if (single) {
+                // One connection per row, autocommit on
+                runMetrics.expectFiles(qcaFiles);
+                pipeline.stream(qcaFiles, qcaFile -> {
+                    if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                    return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+                }, rowBuffer, (qcaFile, fieldValues) -> {
+                    if (runMetrics.DEBUG) System.out.println("Extracted Field Values: " + fieldValues);
+                    insertValuesIntoOutputMdb(liaisonMdbPath, fieldValues, plan);
+                }, (qcaFile, rows) -> {
+                }, qcaFile -> {
+                });
+            } else {
+                int batchSize = Integer.parseInt(config.getProperty("Batch_size", "500").trim());
+                int commitInterval = Integer.parseInt(config.getProperty("Commit_interval", "5000").trim());
+                String outputEngine = config.getProperty("Output_engine", "ucanaccess").toLowerCase().trim();
+                String rowIdColumn = config.getProperty("Row_id_column", "ID").trim();
+                List<File> files = qcaFiles;
+                if (manifest != null && manifest.hasCommits()) {
+                    try {
+                        files = manifest.selectPending(files);
+                    } catch (IOException e) {
+                        System.err.println("Error reading input files: " + e.getMessage());
+                        runMetrics.outputFailed();
+                        return;
+                    }
+                }
+                // Keys of earlier runs only count while their rows are still in the output
+                dedupIndex dedup;
+                try {
+                    dedup = dedupIndex.open(config, plan.getColumnNames(), liaisonMdbPath,
+                            manifest == null || !manifest.hasCommits());
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Error opening dedup index: " + e.getMessage());
+                    runMetrics.outputFailed();
+                    return;
+                }
+                bulkInsertIntoOutputMdb(liaisonMdbPath, plan, pipeline, files,
+                        qcaFile -> qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity), rowBuffer,
+                        batchSize, commitInterval, outputEngine, manifest, rowIdColumn, dedup,
+                        bulkLoadMode.fromConfig(config, files, liaisonMdbPath));
+            }
+            runMetrics.report(config);
         } else {
             System.out.println("No QCA files found in the directory.");
         }
     }
 
+    // Copies the template to the output location, unless the manifest shows an earlier run to append to
+    static void prepareOutputMdb(String templateMdbPath, Path fullOutputPath, runManifest manifest) throws IOException {
+        if (manifest != null && manifest.hasCommits() && Files.exists(fullOutputPath)) {
+            System.out.println("Appending to existing database: " + fullOutputPath);
+            return;
+        }
+        // Copy template MDB to output location
+        Files.copy(Paths.get(templateMdbPath), fullOutputPath, 
+                  StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Template database copied from: " + templateMdbPath);
+        System.out.println("Template database copied to: " + fullOutputPath);
+        if (manifest != null) {
+            manifest.reset();
+        }
+    }
+
     private static Properties loadConfig(String filePath) {
         Properties properties = new Properties();
         try (FileInputStream input = new FileInputStream(filePath)) {
@@ -91,28 +192,18 @@ public class specialHandler {
         return properties;
     }
 
-    private static Map<String, String> getFieldNumberToNameMapping(String schemaMdbPath, List<String> docTypes) {
+    static Map<String, String> getFieldNumberToNameMapping(String schemaMdbPath, String schemaCachePath, List<String> docTypes) {
         Map<String, String> fieldNumberToName = new HashMap<>();
-        String url = "jdbc:ucanaccess://" + schemaMdbPath;
-        
-        try (Connection conn = DriverManager.getConnection(url);
-             Statement stmt = conn.createStatement()) {
-            
-            // Get all fields from the schema table with a more inclusive query
-            String query = "SELECT FieldNo, FieldName, DocType FROM tblFields";
-            ResultSet rs = stmt.executeQuery(query);
-            
-            while (rs.next()) {
-                String fieldNo = rs.getString("FieldNo");
-                String fieldName = rs.getString("FieldName");
-                String docType = rs.getString("DocType");
-                
-                // Clean up the field number
-                fieldNo = fieldNo.replace(".0", "").trim();
-                
+
+        try {
+            for (String[] field : schemaCache.loadFields(schemaMdbPath, schemaCachePath)) {
+                String fieldNo = field[0];
+                String fieldName = field[1];
+                String docType = field[2];
+
                 // Add mapping without document type for all fields
                 fieldNumberToName.put(fieldNo, fieldName);
-                
+
                 // Also add mapping with document type if present
                 if (docType != null) {
                     docType = docType.replace("~", "").trim();
@@ -120,196 +211,242 @@ public class specialHandler {
                     fieldNumberToName.put(mappingKey, fieldName);
                 }
             }
-                
         } catch (Exception e) {
             System.err.println("Error in field mapping: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
         return fieldNumberToName;
     }
 
-    private static Map<String, String> extractFieldValuesFromXml(File qcaFile, Map<String, String> fieldNumberToName) {
-        Map<String, String> fieldValues = new HashMap<>();
-
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(qcaFile);
-            doc.getDocumentElement().normalize();
-
-            NodeList records = doc.getElementsByTagName("record");
-            System.out.println("Found " + records.getLength() + " records");
-
-            for (int i = 0; i < records.getLength(); i++) {
-                Element record = (Element) records.item(i);
-                NodeList subRecords = record.getElementsByTagName("sub-record");
-                
-                for (int j = 0; j < subRecords.getLength(); j++) {
-                    Element subRecord = (Element) subRecords.item(j);
-                    NodeList fields = subRecord.getElementsByTagName("field");
-                    
-                    // Get document type
-                    String documentType = "";
-                    for (int k = 0; k < fields.getLength(); k++) {
-                        Element field = (Element) fields.item(k);
-                        if ("1".equals(field.getAttribute("no"))) {
-                            documentType = field.getElementsByTagName("value").item(0).getTextContent();
-                            break;
+    // Keeps one connection and one prepared statement (or one Jackcess table) open for the whole run.
+    // With a manifest, each commit also records the files whose rows it contains. With a dedup
+    // index, records whose keys are already in the output are skipped or update the earlier row.
+    private static void bulkInsertIntoOutputMdb(String outputMdbPath, liaisonPlan plan, qcaPipeline pipeline,
+            List<File> qcaFiles, Function<File, Iterator<Map<String, String>>> extractor, int rowBuffer, int batchSize,
+            int commitInterval, String outputEngine, runManifest manifest, String rowIdColumn, dedupIndex dedup,
+            bulkLoadMode bulk) {
+        try (rowWriter writer = openLiaisonWriter(outputMdbPath, plan, batchSize, commitInterval, outputEngine,
+                rowIdColumn, bulk)) {
+            try {
+                if (manifest != null) {
+                    generalHandler.resumeFromManifest(writer, manifest);
+                }
+                trackDuplicates(writer, dedup);
+                if (manifest != null) {
+                    forgetPreviousRows(writer, dedup, manifest, qcaFiles);
+                    generalHandler.dropPreviousRows(writer, manifest, qcaFiles);
+                    writer.checkpoint();
+                }
+                long[] rows = new long[1];
+                runMetrics.expectFiles(qcaFiles);
+                pipeline.stream(qcaFiles, qcaFile -> {
+                    if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                    if (manifest != null) {
+                        try {
+                            manifest.prepare(qcaFile);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
                     }
-
-                    // Process all fields regardless of document type
-                    for (int k = 0; k < fields.getLength(); k++) {
-                        Element field = (Element) fields.item(k);
-                        String fieldNo = field.getAttribute("no");
-                        String value = field.getElementsByTagName("value").item(0).getTextContent();
-                        
-                        if (value.equals("$") || value.trim().isEmpty()) {
-                            continue;
+                    return extractor.apply(qcaFile);
+                }, rowBuffer, (qcaFile, fieldValues) -> {
+                    try {
+                        if (fieldValues.isEmpty()) {
+                            if (runMetrics.DEBUG) System.out.println("No field values to insert - skipping record");
+                            return;
                         }
-
-                        // Try both with and without document type
-                        String fieldName = fieldNumberToName.get(fieldNo + "-" + documentType);
-                        if (fieldName == null) {
-                            fieldName = fieldNumberToName.get(fieldNo);
-                        }
-
-                        if (fieldName != null) {
-                            fieldValues.put(fieldName, value);
+                        long start = System.nanoTime();
+                        Object[] row = plan.build(fieldValues);
+                        long insertStart = System.nanoTime();
+                        runMetrics.ROW_BUILD.recordNanos(insertStart - start);
+                        if (dedup == null || dedup.admit(row)) {
+                            writer.add(row);
+                            rows[0]++;
+                        } else if (dedup.isUpdate()) {
+                            writer.update(row, dedup.getKeyColumns());
                         }
+                        runMetrics.INSERT.record(insertStart);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error writing to Liaison: " + e.getMessage(), e);
                     }
-                }
+                }, (qcaFile, results) -> {
+                    if (manifest == null) {
+                        return;
+                    }
+                    try {
+                        manifest.stage(qcaFile, rows[0]);
+                        rows[0] = 0;
+                        writer.checkpoint();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error writing to Liaison: " + e.getMessage(), e);
+                    }
+                }, qcaFile -> {
+                    rows[0] = 0;
+                    if (manifest == null) {
+                        return;
+                    }
+                    // The file is not staged, so the next run loads it again; its rows and dedup keys go
+                    try {
+                        writer.rollback();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Error writing to Liaison: " + e.getMessage(), e);
+                    }
+                });
+                writer.flush();
+            } catch (Throwable e) {
+                // Neither the rows nor the dedup keys of the file the load stopped in are committed
+                writer.abort();
+                throw e;
+            }
+            System.out.println(writer.summary());
+            if (dedup != null) {
+                System.out.println((dedup.isUpdate() ? "Updated " : "Skipped ") + dedup.getDuplicates()
+                        + " duplicate records");
             }
         } catch (Exception e) {
+            System.err.println("Database connection error: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
+        } finally {
+            if (dedup != null) {
+                try {
+                    dedup.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing dedup index: " + e.getMessage());
+                }
+            }
         }
-        return fieldValues;
     }
 
-    private static void insertValuesIntoOutputMdb(String outputMdbPath, Map<String, String> fieldValues) {
-        // Don't process if we have no values
-        if (fieldValues.isEmpty()) {
-            System.out.println("No field values to insert - skipping record");
+    // Moves the dedup index's pending keys in with every commit of the writer; added after the
+    // manifest's listener, so a crash in between leaves a duplicate rather than a lost row. Rows the
+    // writer refuses never get their key committed.
+    static void trackDuplicates(rowWriter writer, dedupIndex dedup) {
+        if (dedup == null) {
             return;
         }
+        writer.addRejectListener(dedup::reject);
+        writer.addCommitListener(() -> {
+            try {
+                dedup.commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error updating dedup index: " + e.getMessage(), e);
+            }
+        });
+    }
 
-        String url = "jdbc:ucanaccess://" + outputMdbPath;
-        
-        try (Connection conn = DriverManager.getConnection(url)) {
-            String sql = "INSERT INTO Liaison ([App Date], [Type], [Make], [Model], [Year], [Color], " +
-                        "[Plate #], [Engine #], [Chasis #], [MVCO OR #], [Owner], [TIN Owner], [Address], [Purpose], " +
-                        "[Acquired From], [From TIN], [From Address], [Switch], [MacroEch], [Operator Id]) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                // Parse and format the date with error handling
-                try {
-                    String dateSold = fieldValues.get("Date Sold");
-                    if (dateSold != null && !dateSold.trim().isEmpty()) {
-                        SimpleDateFormat inputFormat = new SimpleDateFormat("MM/dd/yyyy");
-                        inputFormat.setLenient(false);
-                        java.util.Date date = inputFormat.parse(dateSold);
-                        pstmt.setDate(1, new java.sql.Date(date.getTime()));
-                    } else {
-                        pstmt.setNull(1, Types.DATE);
-                    }
-                } catch (ParseException e) {
-                    System.err.println("Error parsing date: " + e.getMessage());
-                    pstmt.setNull(1, Types.DATE);
-                }
-
-                // Type (field #2)
-                String bodyType = fieldValues.getOrDefault("BODY TYPE", "UNKNOWN");
-                pstmt.setString(2, bodyType.length() > 20 ? bodyType.substring(0, 17) + "..." : bodyType);
-
-                // Make (field #3)
-                pstmt.setString(3, fieldValues.getOrDefault("Make", "TOYOTA"));
-
-                // Model (field #4)
-                String model = fieldValues.getOrDefault("Model", "UNKNOWN");
-                pstmt.setString(4, model.length() > 20 ? model.substring(0, 17) + "..." : model);
-
-                // Year (field #5)
-                pstmt.setString(5, fieldValues.getOrDefault("YEAR", "2024"));
-
-                // Color (field #6)
-                String color = fieldValues.getOrDefault("Color", "NOT SPECIFIED");
-                pstmt.setString(6, color.length() > 20 ? color.substring(0, 17) + "..." : color);
-
-                // Plate # (field #7) - ensure not empty
-                String plateNo = fieldValues.getOrDefault("Conduction Sitcker No./Plate Number", "PENDING");
-                if (plateNo.trim().isEmpty()) {
-                    plateNo = "PENDING";
+    // Forgets the keys of the rows dropPreviousRows is about to remove for changed files
+    static void forgetPreviousRows(rowWriter writer, dedupIndex dedup, runManifest manifest, List<File> sources)
+            throws Exception {
+        if (dedup == null) {
+            return;
+        }
+        for (File source : new LinkedHashSet<>(sources)) {
+            runManifest.entry previous = manifest.previous(source);
+            if (previous != null && previous.getFirstRowId() > 0) {
+                for (Object[] row : writer.readRows(previous.getFirstRowId(), previous.getLastRowId())) {
+                    dedup.remove(row);
                 }
-                pstmt.setString(7, plateNo);
-
-                // Engine # (field #8)
-                pstmt.setString(8, fieldValues.getOrDefault("ENGINE NO", ""));
-
-                // Chassis # (field #9)
-                pstmt.setString(9, fieldValues.getOrDefault("CHASSIS#", ""));
-
-                // MVCO OR # (field #10) - hardcoded as per requirement
-                pstmt.setString(10, "21201218");
+            }
+        }
+    }
 
-                // Owner (field #11)
-                StringBuilder ownerName = new StringBuilder();
-                String lastName = fieldValues.getOrDefault("Last Name", "");
-                String firstName = fieldValues.getOrDefault("First Name", "");
-                String middleName = fieldValues.getOrDefault("Middle Name", "");
-                String extension = fieldValues.getOrDefault("Extension", "");
-                
-                if (!lastName.isEmpty()) ownerName.append(lastName);
-                if (!firstName.isEmpty()) ownerName.append(", ").append(firstName);
-                if (!middleName.isEmpty()) ownerName.append(" ").append(middleName);
-                if (!extension.isEmpty()) ownerName.append(" ").append(extension);
-                
-                String owner = ownerName.toString();
-                if (owner.isEmpty()) owner = "NOT SPECIFIED";
-                pstmt.setString(11, owner.length() > 50 ? owner.substring(0, 47) + "..." : owner);
+    // One template copy per shard, named like Output_MDB plus _<key> and _2, _3, ... once a shard rolls over
+    private static void writeShards(Properties config, liaisonPlan plan, qcaPipeline pipeline, List<File> files,
+            qcaParser parser, fieldLookupIndex fieldIndex, String granularity, String templateMdbPath,
+            String outputMdbPath) {
+        int batchSize = Integer.parseInt(config.getProperty("Batch_size", "500").trim());
+        int commitInterval = Integer.parseInt(config.getProperty("Commit_interval", "5000").trim());
+        String outputEngine = config.getProperty("Output_engine", "ucanaccess").toLowerCase().trim();
+        String rowIdColumn = config.getProperty("Row_id_column", "ID").trim();
+        int dot = outputMdbPath.lastIndexOf('.');
+        String stem = dot > 0 ? outputMdbPath.substring(0, dot) : outputMdbPath;
+        String ext = dot > 0 ? outputMdbPath.substring(dot) : ".mdb";
+        // Every shard is one long connection, so it is sized as a share of the whole input
+        bulkLoadMode bulk = bulkLoadMode.fromConfig(config, files, templateMdbPath);
+
+        try (shardRouter router = new shardRouter(config, fieldIndex, (key, sequence) -> {
+            Path file = Paths.get(stem + (key.isEmpty() ? "" : "_" + key) + (sequence > 1 ? "_" + sequence : "") + ext);
+            prepareOutputMdb(templateMdbPath, file, null);
+            rowWriter writer = openLiaisonWriter(file.toString(), plan, batchSize, commitInterval, outputEngine,
+                    rowIdColumn, bulk);
+            return shardRouter.forRows(writer, file, plan::build);
+        })) {
+            router.load(pipeline, files, qcaFile -> {
+                if (runMetrics.DEBUG) System.out.println("Processing file: " + qcaFile.getName());
+                return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+            });
+        } catch (RuntimeException e) {
+            System.err.println("Error writing shards: " + e.getMessage());
+            runMetrics.outputFailed();
+            e.printStackTrace();
+        }
+    }
 
-                // TIN Owner (field #12)
-                String tin = fieldValues.getOrDefault("TIN", "000-000-000-000");
-                pstmt.setString(12, tin);
+    static rowWriter openLiaisonWriter(String outputMdbPath, liaisonPlan plan, int batchSize, int commitInterval,
+            String outputEngine, String rowIdColumn, bulkLoadMode bulk) throws Exception {
+        if (outputEngine.equals("jackcess")) {
+            return jackcessRowWriter.open(outputMdbPath, "Liaison", plan.getColumnNames(), batchSize, commitInterval);
+        }
+        bulk.announce(outputMdbPath, "Liaison");
+        Connection conn = DriverManager.getConnection(bulk.url(outputMdbPath));
+        try {
+            batchInserter inserter = new batchInserter(conn, plan.getInsertSql(), plan.getSqlTypes(), batchSize,
+                    commitInterval, true);
+            inserter.describeColumns("Liaison", plan.getColumnNames());
+            if (hasColumn(conn, "Liaison", rowIdColumn)) {
+                inserter.trackRowIds("Liaison", rowIdColumn);
+            }
+            return inserter;
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
 
-                // Address (field #13)
-                List<String> addressParts = new ArrayList<>();
-                String[] addressFields = {
-                    "Unit No./HouseNo./Floor No.",
-                    "Building",
-                    "Street",
-                    "Barangay",
-                    "City or Municipality",
-                    "Province",
-                    "Zipcode"
-                };
-                for (String field : addressFields) {
-                    String part = fieldValues.get(field);
-                    if (part != null && !part.trim().isEmpty()) {
-                        addressParts.add(part.trim());
-                    }
+    private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM [" + table + "] WHERE 1 = 0")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                if (meta.getColumnName(i).equalsIgnoreCase(column)) {
+                    return true;
                 }
-                String address = addressParts.isEmpty() ? "NOT SPECIFIED" : String.join(" ", addressParts);
-                pstmt.setString(13, address.length() > 100 ? address.substring(0, 97) + "..." : address);
+            }
+        }
+        return false;
+    }
 
-                // Fixed values for remaining fields
-                pstmt.setString(14, "New Registration");               // Purpose
-                pstmt.setString(15, "TOYOTA OTIS INC");               // Acquired From
-                pstmt.setString(16, "003-498-557-000");               // From TIN
-                pstmt.setString(17, "1770 P M GUAZON ST");            // From Address
-                pstmt.setString(18, "0");                             // Switch
-                pstmt.setString(19, fieldValues.getOrDefault("CSR NUMBER", "")); // MacroEch
-                pstmt.setString(20, "MVCO");                          // Operator Id
+    private static void insertValuesIntoOutputMdb(String outputMdbPath, Map<String, String> fieldValues, liaisonPlan plan) {
+        // Don't process if we have no values
+        if (fieldValues.isEmpty()) {
+            if (runMetrics.DEBUG) System.out.println("No field values to insert - skipping record");
+            return;
+        }
 
+        String url = "jdbc:ucanaccess://" + outputMdbPath;
+        
+        try (Connection conn = DriverManager.getConnection(url)) {
+            try (PreparedStatement pstmt = conn.prepareStatement(plan.getInsertSql())) {
+                long start = System.nanoTime();
+                Object[] row = plan.build(fieldValues);
+                long insertStart = System.nanoTime();
+                runMetrics.ROW_BUILD.recordNanos(insertStart - start);
+                batchInserter.bind(pstmt, row, plan.getSqlTypes());
                 pstmt.executeUpdate();
-                System.out.println("Record inserted successfully");
+                runMetrics.INSERT.record(insertStart);
+                runMetrics.rowsWritten(1);
+                if (runMetrics.DEBUG) System.out.println("Record inserted successfully");
                 
             } catch (SQLException e) {
+                runMetrics.rowFailed();
                 System.err.println("Error inserting record: " + e.getMessage());
                 e.printStackTrace();
             }
         } catch (SQLException e) {
             System.err.println("Database connection error: " + e.getMessage());
+            runMetrics.outputFailed();
             e.printStackTrace();
         }
     }
@@ -0,0 +1,114 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class staxQcaParser implements qcaParser {
+    private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    });
+
+    @Override
+    public qcaReader open(File qcaFile) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(qcaFile), 64 * 1024);
+        try {
+            return new staxReader(input, FACTORY.get().createXMLStreamReader(input));
+        } catch (XMLStreamException e) {
+            input.close();
+            throw new IOException("Error parsing " + qcaFile.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static class staxReader implements qcaReader {
+        private final InputStream input;
+        private final XMLStreamReader reader;
+        private final StringBuilder text = new StringBuilder();
+        private int recordDepth;
+        private int recordCount;
+
+        staxReader(InputStream input, XMLStreamReader reader) {
+            this.input = input;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean next(qcaSubRecord subRecord) throws IOException {
+            try {
+                boolean inSubRecord = false;
+                String fieldNo = null;
+                String value = null;
+                int valueDepth = 0;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (valueDepth > 0) {
+                            valueDepth++;
+                        } else if ("record".equals(name)) {
+                            recordDepth++;
+                            recordCount++;
+                        } else if ("sub-record".equals(name) && recordDepth > 0 && !inSubRecord) {
+                            inSubRecord = true;
+                            subRecord.reset(recordCount - 1);
+                        } else if ("field".equals(name) && inSubRecord && fieldNo == null) {
+                            fieldNo = reader.getAttributeValue(null, "no");
+                            if (fieldNo == null) {
+                                fieldNo = "";
+                            }
+                            value = null;
+                        } else if ("value".equals(name) && fieldNo != null && value == null) {
+                            valueDepth = 1;
+                            text.setLength(0);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (valueDepth > 0) {
+                            if (--valueDepth == 0) {
+                                value = text.toString();
+                            }
+                            continue;
+                        }
+                        String name = reader.getLocalName();
+                        if ("record".equals(name)) {
+                            recordDepth--;
+                        } else if ("field".equals(name) && fieldNo != null) {
+                            subRecord.add(fieldNo, value == null ? "" : value);
+                            fieldNo = null;
+                        } else if ("sub-record".equals(name) && inSubRecord) {
+                            return true;
+                        }
+                    } else if (valueDepth > 0 && (event == XMLStreamConstants.CHARACTERS
+                            || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+                return false;
+            } catch (XMLStreamException e) {
+                throw new IOException("Error parsing QCA stream: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // The underlying stream is closed below regardless
+            }
+            input.close();
+        }
+    }
+}
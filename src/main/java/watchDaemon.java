@@ -0,0 +1,369 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Long-running alternative to the interactive prompts: watches Input_path and loads newly arrived
+// QCA files in micro-batches. The schema mapping, parser and output connection stay open between
+// batches, and every batch is committed (and recorded in the output's manifest) before the next.
+public class watchDaemon {
+    private final Properties config;
+    private final boolean special;
+    private final boolean csv;
+    private final Path inputDir;
+    private final String inputExt;
+    private final String outputPath;
+    private final String outputMdbName;
+    private final String templateMdbPath;
+    private final int batchFiles;
+    private final long batchWindowMillis;
+    private final long settleMillis;
+    private final int batchSize;
+    private final int commitInterval;
+    private final String outputEngine;
+    private final String rowIdColumn;
+    private final String granularity;
+    private final int rowBuffer;
+    private final fieldLookupIndex fieldIndex;
+    private final liaisonPlan plan;
+    private final qcaParser parser;
+    private final qcaPipeline pipeline;
+
+    // Files seen by the watcher, with the time of their latest event, in arrival order
+    private final Map<Path, Long> arrivals = new LinkedHashMap<>();
+    private long batchStart;
+    private volatile boolean running = true;
+
+    // Opened with the first batch, since the general output is named after the first input file
+    private runManifest manifest;
+    private rowWriter writer;
+    private csvRecordWriter csvWriter;
+    private dedupIndex dedup;
+    private String[] fieldNames;
+    private Function<Map<String, String>, Object[]> toRow;
+    private long csvFirstLine;
+
+    public watchDaemon(Properties config) {
+        this.config = config;
+        this.special = config.getProperty("Handling_type", "general").toLowerCase().trim().equals("special");
+        this.csv = !special && config.getProperty("Output_format", "mdb").toLowerCase().trim().equals("csv");
+        this.inputDir = Paths.get(config.getProperty("Input_path"));
+        this.inputExt = "." + config.getProperty("input_ext", "QCA").toLowerCase();
+        this.outputPath = config.getProperty("Output_path");
+        this.outputMdbName = Paths.get(config.getProperty("Output_MDB")).getFileName().toString();
+        this.templateMdbPath = config.getProperty("Template_MDB");
+        this.batchFiles = Integer.parseInt(config.getProperty("Watch_batch_files", "200").trim());
+        this.batchWindowMillis = Long.parseLong(config.getProperty("Watch_batch_window_ms", "2000").trim());
+        this.settleMillis = Long.parseLong(config.getProperty("Watch_settle_ms", "500").trim());
+        this.batchSize = Integer.parseInt(config.getProperty("Batch_size", "500").trim());
+        this.commitInterval = Integer.parseInt(config.getProperty("Commit_interval", "5000").trim());
+        this.outputEngine = config.getProperty("Output_engine", "ucanaccess").toLowerCase().trim();
+        this.rowIdColumn = config.getProperty("Row_id_column", "ID").trim();
+        this.granularity = qcaRowIterator.granularity(config);
+        this.rowBuffer = Integer.parseInt(config.getProperty("Row_buffer", "256").trim());
+
+        String schemaMdbPath = config.getProperty("Schema_MDB");
+        Map<String, String> fieldNumberToName = special
+                ? specialHandler.getFieldNumberToNameMapping(schemaMdbPath, config.getProperty("Schema_cache"),
+                        Arrays.asList("SI", "CSR", "SBR"))
+                : generalHandler.getFieldNumberToNameMapping(schemaMdbPath, config.getProperty("Schema_cache"));
+        this.fieldIndex = fieldLookupIndex.compile(fieldNumberToName);
+        this.plan = special ? liaisonPlan.compile(config, fieldIndex) : null;
+        this.parser = qcaParser.fromConfig(config);
+        this.pipeline = qcaPipeline.fromConfig(config);
+        if (!special && !config.getProperty("Dedup_keys", "").trim().isEmpty()) {
+            System.err.println("Warning: Dedup_keys only applies to special handling; duplicates are not checked");
+        }
+    }
+
+    public static void run(Properties config) {
+        watchDaemon daemon = new watchDaemon(config);
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.running = false;
+            try {
+                // Let the current batch commit and the output close
+                main.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "watch-shutdown"));
+        daemon.watch();
+    }
+
+    public void watch() {
+        try {
+            Files.createDirectories(Paths.get(outputPath));
+        } catch (IOException e) {
+            System.err.println("Error creating output directory: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        try (WatchService watcher = inputDir.getFileSystem().newWatchService()) {
+            inputDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + inputDir + " for " + inputExt + " files (" + (special ? "special" : "general")
+                    + ", " + (csv ? "csv" : "mdb") + ")");
+            if (Boolean.parseBoolean(config.getProperty("Input_recursive", "false").trim())
+                    || !config.getProperty("Input_modified_after", "").trim().isEmpty()
+                    || !config.getProperty("Input_modified_before", "").trim().isEmpty()) {
+                System.err.println("Warning: watch mode loads every file arriving directly in " + inputDir
+                        + "; Input_recursive, Input_modified_after and Input_modified_before are ignored");
+            }
+
+            // Files already waiting are loaded first; the manifest skips those loaded before
+            scan(0);
+
+            while (running) {
+                WatchKey key = watcher.poll(arrivals.isEmpty() ? 1000 : Math.max(1, Math.min(settleMillis, 250)),
+                        TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    long now = System.currentTimeMillis();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(now);
+                        } else {
+                            arrived(inputDir.resolve((Path) event.context()), now);
+                        }
+                    }
+                    key.reset();
+                }
+
+                List<File> ready = readyFiles(System.currentTimeMillis());
+                if (!ready.isEmpty() && (ready.size() >= batchFiles
+                        || System.currentTimeMillis() - batchStart >= batchWindowMillis)) {
+                    for (File file : ready) {
+                        arrivals.remove(file.toPath());
+                    }
+                    batchStart = System.currentTimeMillis();
+                    loadBatch(ready);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error watching input directory: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeOutput();
+            runMetrics.report(config);
+            System.out.println("Watch stopped; " + arrivals.size() + " unloaded files are picked up on the next start");
+        }
+    }
+
+    private void scan(long now) throws IOException {
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(inputDir)) {
+            List<Path> sorted = new ArrayList<>();
+            for (Path entry : entries) {
+                sorted.add(entry);
+            }
+            Collections.sort(sorted);
+            for (Path entry : sorted) {
+                arrived(entry, now);
+            }
+        }
+        runMetrics.SCAN.record(start);
+    }
+
+    private void arrived(Path file, long now) {
+        if (!file.getFileName().toString().toLowerCase().endsWith(inputExt)) {
+            return;
+        }
+        if (arrivals.isEmpty()) {
+            batchStart = now;
+        }
+        arrivals.put(file, now);
+    }
+
+    // Files with no event for settleMillis, i.e. no longer being copied in
+    private List<File> readyFiles(long now) {
+        List<File> ready = new ArrayList<>();
+        for (Map.Entry<Path, Long> arrival : arrivals.entrySet()) {
+            if (now - arrival.getValue() >= settleMillis && Files.isRegularFile(arrival.getKey())) {
+                ready.add(arrival.getKey().toFile());
+                if (ready.size() == batchFiles) {
+                    break;
+                }
+            }
+        }
+        return ready;
+    }
+
+    private void loadBatch(List<File> batch) {
+        long start = System.nanoTime();
+        List<File> files = batch;
+        try {
+            if (manifest == null) {
+                openOutput(batch.get(0));
+            }
+            files = manifest.selectPending(batch);
+            if (files.isEmpty()) {
+                return;
+            }
+
+            if (csv) {
+                generalHandler.warnChangedCSVFiles(manifest, files);
+            } else {
+                specialHandler.forgetPreviousRows(writer, dedup, manifest, files);
+                generalHandler.dropPreviousRows(writer, manifest, files);
+                writer.checkpoint();
+            }
+            // Rows of the whole batch, and of the file being written
+            long[] rows = new long[2];
+            runMetrics.expectFiles(files);
+            pipeline.stream(files, qcaFile -> {
+                try {
+                    manifest.prepare(qcaFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return qcaExtractor.rows(parser, qcaFile, fieldIndex, granularity);
+            }, rowBuffer, (qcaFile, fieldValues) -> {
+                try {
+                    if (fieldValues.isEmpty()) {
+                        return;
+                    }
+                    long writeStart = System.nanoTime();
+                    if (csv) {
+                        csvWriter.write(fieldValues);
+                    } else {
+                        Object[] row = toRow.apply(fieldValues);
+                        long insertStart = System.nanoTime();
+                        runMetrics.ROW_BUILD.recordNanos(insertStart - writeStart);
+                        writeStart = insertStart;
+                        if (dedup != null && !dedup.admit(row)) {
+                            if (dedup.isUpdate()) {
+                                writer.update(row, dedup.getKeyColumns());
+                            }
+                            runMetrics.INSERT.record(writeStart);
+                            return;
+                        }
+                        writer.add(row);
+                    }
+                    runMetrics.INSERT.record(writeStart);
+                    rows[0]++;
+                    rows[1]++;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Error writing " + qcaFile.getName() + ": " + e.getMessage(), e);
+                }
+            }, (qcaFile, results) -> {
+                try {
+                    manifest.stage(qcaFile, rows[1]);
+                    rows[1] = 0;
+                    if (!csv) {
+                        writer.checkpoint();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException("Error committing " + qcaFile.getName() + ": " + e.getMessage(), e);
+                }
+            }, qcaFile -> {
+                rows[0] -= rows[1];
+                rows[1] = 0;
+                // A CSV cannot take rows back; failing the batch cuts it back to the last commit instead
+                if (csv) {
+                    throw new IllegalStateException("Error reading " + qcaFile.getName());
+                }
+                try {
+                    writer.rollback();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Error rolling back " + qcaFile.getName() + ": " + e.getMessage(), e);
+                }
+            });
+
+            // Last commit of the batch; the writer's commit listener records it in the manifest
+            if (csv) {
+                manifest.committed(csvWriter.flush(), csvFirstLine + csvWriter.getRows());
+            } else {
+                writer.flush();
+            }
+            System.out.println(String.format("Loaded batch of %d files (%d records) in %.0f ms",
+                    files.size(), rows[0], (System.nanoTime() - start) / 1e6));
+            runMetrics.writeReport(config);
+        } catch (Exception e) {
+            // Closing without a commit keeps the manifest at the last good commit (a CSV is cut back to
+            // it on reopening); the batch is retried after the next window with whatever it did not commit
+            System.err.println("Error loading batch: " + e.getMessage());
+            e.printStackTrace();
+            if (writer != null) {
+                writer.abort();
+            }
+            closeOutput();
+            long now = System.currentTimeMillis();
+            for (File file : batch) {
+                arrived(file.toPath(), now);
+            }
+        }
+    }
+
+    private void openOutput(File firstFile) throws Exception {
+        if (special) {
+            Path fullOutputPath = Paths.get(outputPath, outputMdbName);
+            manifest = runManifest.load(fullOutputPath.toString());
+            specialHandler.prepareOutputMdb(templateMdbPath, fullOutputPath, manifest);
+            // The output stays open between batches, so bulk mode (an exclusive open) only when asked for
+            writer = specialHandler.openLiaisonWriter(fullOutputPath.toString(), plan, batchSize, commitInterval,
+                    outputEngine, rowIdColumn,
+                    bulkLoadMode.fromConfig(config, Collections.emptyList(), fullOutputPath.toString()));
+            toRow = plan::build;
+            dedup = dedupIndex.open(config, plan.getColumnNames(), fullOutputPath.toString(), !manifest.hasCommits());
+            generalHandler.resumeFromManifest(writer, manifest);
+            specialHandler.trackDuplicates(writer, dedup);
+            return;
+        }
+
+        // Same output name as a one-shot run over the directory
+        String baseName = firstFile.getName().split("-")[0] + "_db";
+        fieldNames = fieldIndex.names();
+        if (csv) {
+            String outputFile = outputPath + "/" + baseName + generalHandler.csvExtension(config);
+            manifest = runManifest.load(outputFile);
+            csvWriter = generalHandler.openCSV(outputFile, fieldNames, manifest);
+            csvFirstLine = manifest.getLastRowId();
+            return;
+        }
+
+        // Every schema field gets a column up front, since later batches may carry any of them; like
+        // streamToMDB, one column for names that only differ in case
+        fieldNames = generalHandler.distinctFieldNames(fieldIndex);
+        String outputMdbPath = (outputPath + "/" + baseName + ".mdb").replace('/', File.separatorChar);
+        String[] columnNames = new String[fieldNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = generalHandler.sanitizeFieldName(fieldNames[i]);
+        }
+        manifest = runManifest.load(outputMdbPath);
+        writer = generalHandler.openDataBaseWriter(outputMdbPath, columnNames, batchSize, commitInterval,
+                outputEngine, manifest);
+        toRow = record -> {
+            Object[] row = new Object[fieldNames.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = record.getOrDefault(fieldNames[i], "");
+            }
+            return row;
+        };
+        generalHandler.resumeFromManifest(writer, manifest);
+    }
+
+    private void closeOutput() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+            if (csvWriter != null) {
+                csvWriter.close();
+            }
+            if (dedup != null) {
+                dedup.close();
+            }
+        } catch (Exception e) {
+            System.err.println("Error closing output: " + e.getMessage());
+            e.printStackTrace();
+        }
+        writer = null;
+        csvWriter = null;
+        dedup = null;
+        manifest = null;
+    }
+}